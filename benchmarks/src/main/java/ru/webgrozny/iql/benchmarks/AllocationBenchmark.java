@@ -0,0 +1,66 @@
+package ru.webgrozny.iql.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import ru.webgrozny.iql.CompiledQuery;
+import ru.webgrozny.iql.IQL;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Garbage of repeated building of the same queries. Run with "-prof gc" and compare gc.alloc.rate.norm:
+ * new builder for every query, builder of thread (IQL.local) and one reused builder for select, delete and bulk update
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AllocationBenchmark {
+    private final IQL reused = new IQL();
+    private int age;
+
+    private CompiledQuery build(IQL iql) {
+        age = (age + 1) & 63;
+        return iql.addTable("users", "groups")
+                .setTable(1)
+                .select("id %i", "name", "group_id %i")
+                .join(1, "group_id", 2, "id", IQL.JOIN_LEFT)
+                .where("age %i", IQL.MORE, age)
+                .and()
+                .where("name %s", IQL.LIKE, "a%")
+                .orderBy("name", IQL.ASC)
+                .limit(20, 10)
+                .build();
+    }
+
+    @Benchmark
+    public CompiledQuery newBuilder() {
+        return build(new IQL());
+    }
+
+    @Benchmark
+    public CompiledQuery threadBuilder() {
+        return build(IQL.local(null));
+    }
+
+    @Benchmark
+    public CompiledQuery reusedBuilder() {
+        return build(reused);
+    }
+
+    @Benchmark
+    public CompiledQuery reusedDelete() {
+        age = (age + 1) & 63;
+        return reused.addTable("users").delete().where("age %i", IQL.MORE, age).build();
+    }
+
+    @Benchmark
+    public CompiledQuery reusedBulkUpdate() {
+        age = (age + 1) & 63;
+        return reused.addTable("users").setBulkUpdateFields("id %i", "age %i", "name %s")
+                .updateRow(1, age, "a")
+                .updateRow(2, age + 1, "b")
+                .build();
+    }
+}
@@ -0,0 +1,140 @@
+package ru.webgrozny.iql.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import ru.webgrozny.iql.IQL;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Insert of String values (as read from CSV) to %i, %d and %f fields: conversion by codecs of IQL against
+ * exception based parsing, that was used before them. Every benchmark inserts the same rows and builds query,
+ * typedValues inserts already converted values and shows cost of insert and build without conversion.
+ * Empty benchmarks insert rows with empty %i cells, which are converted to 0 by both paths
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CodecBenchmark {
+    private static final int ROWS = 1000;
+
+    private final IQL iql = new IQL();
+    private Object[][] data;
+    private Object[][] typed;
+    private Object[][] empty;
+
+    @Setup
+    public void setup() {
+        data = new Object[ROWS][];
+        for (int i = 0; i < ROWS; i++) {
+            data[i] = new Object[]{String.valueOf(i), "0" + (i % 9 + 1) + ".01.2020", i + ".5"};
+        }
+        typed = new Object[ROWS][];
+        for (int i = 0; i < ROWS; i++) {
+            typed[i] = new Object[]{LegacyParsers.parseInt(data[i][0]), LegacyParsers.parseDate(data[i][1]), LegacyParsers.parseFloat(data[i][2])};
+        }
+        empty = new Object[ROWS][];
+        for (int i = 0; i < ROWS; i++) {
+            empty[i] = new Object[]{"", data[i][1], data[i][2]};
+        }
+    }
+
+    @Benchmark
+    public int codecs() {
+        iql.addTable("items").setInsertFields("count %i", "created %d", "price %f");
+        for (Object[] row : data) {
+            iql.insert(row);
+        }
+        return iql.build().getParameterCount();
+    }
+
+    @Benchmark
+    public int exceptionDispatch() {
+        iql.addTable("items").setInsertFields("count %i", "created %d", "price %f");
+        for (Object[] row : data) {
+            iql.insert(LegacyParsers.parseInt(row[0]), LegacyParsers.parseDate(row[1]), LegacyParsers.parseFloat(row[2]));
+        }
+        return iql.build().getParameterCount();
+    }
+
+    @Benchmark
+    public int emptyCodecs() {
+        iql.addTable("items").setInsertFields("count %i", "created %d", "price %f");
+        for (Object[] row : empty) {
+            iql.insert(row);
+        }
+        return iql.build().getParameterCount();
+    }
+
+    @Benchmark
+    public int emptyExceptionDispatch() {
+        iql.addTable("items").setInsertFields("count %i", "created %d", "price %f");
+        for (Object[] row : empty) {
+            iql.insert(LegacyParsers.parseInt(row[0]), LegacyParsers.parseDate(row[1]), LegacyParsers.parseFloat(row[2]));
+        }
+        return iql.build().getParameterCount();
+    }
+
+    @Benchmark
+    public int typedValues() {
+        iql.addTable("items").setInsertFields("count %i", "created %d", "price %f");
+        for (Object[] row : typed) {
+            iql.insert(row);
+        }
+        return iql.build().getParameterCount();
+    }
+
+    /**
+     * Copy of parsers of IQL before codecs
+     */
+    static final class LegacyParsers {
+        static int parseInt(Object intVal) {
+            int ret;
+            try {
+                ret = (Integer) intVal;
+            } catch (ClassCastException e) {
+                try {
+                    ret = Integer.parseInt(intVal.toString());
+                } catch (NumberFormatException e2) {
+                    ret = 0;
+                }
+            }
+            return ret;
+        }
+
+        static int parseDate(Object date) {
+            int ret;
+            try {
+                ret = (Integer) date;
+            } catch (ClassCastException e) {
+                Date d;
+                try {
+                    d = (Date) date;
+                } catch (ClassCastException e1) {
+                    try {
+                        d = new SimpleDateFormat("dd.MM.yyyy").parse((String) date);
+                    } catch (ParseException e3) {
+                        throw new IllegalArgumentException(e3);
+                    }
+                }
+                ret = (int) (d.getTime() / 1000L);
+            }
+            return ret;
+        }
+
+        static float parseFloat(Object data) {
+            float ret;
+            try {
+                ret = (Float) data;
+            } catch (ClassCastException e0) {
+                ret = Float.parseFloat(data.toString());
+            }
+            return ret;
+        }
+    }
+}
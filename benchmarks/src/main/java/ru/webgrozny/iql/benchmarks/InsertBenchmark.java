@@ -0,0 +1,60 @@
+package ru.webgrozny.iql.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import ru.webgrozny.iql.CompiledQuery;
+import ru.webgrozny.iql.IQL;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Multi-row insert: building, rendering with getSQL() and binding to stub JDBC driver, by number of rows
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InsertBenchmark {
+    @Param({"10", "1000", "100000"})
+    int rows;
+
+    private final IQL iql = new IQL();
+    private Connection connection;
+    private Object[][] data;
+
+    @Setup
+    public void setup() {
+        connection = JdbcStub.connection();
+        iql.setConnection(connection);
+        data = new Object[rows][];
+        for (int i = 0; i < rows; i++) {
+            data[i] = new Object[]{"name '" + i + "'", i, i * 0.5f, i % 2 == 0};
+        }
+    }
+
+    private IQL fill() {
+        iql.addTable("items").setInsertFields("name %s", "count %i", "price %f", "active %b");
+        for (Object[] row : data) {
+            iql.insert(row);
+        }
+        return iql;
+    }
+
+    @Benchmark
+    public CompiledQuery build() {
+        return fill().build();
+    }
+
+    @Benchmark
+    public String render() {
+        return fill().getSQL();
+    }
+
+    @Benchmark
+    public PreparedStatement bind() {
+        return fill().getStatement();
+    }
+}
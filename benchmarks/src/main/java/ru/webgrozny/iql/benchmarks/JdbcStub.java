@@ -0,0 +1,43 @@
+package ru.webgrozny.iql.benchmarks;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+
+/**
+ * Connection, which statements accept parameters and do nothing, so benchmarks measure only IQL side of binding
+ */
+final class JdbcStub {
+    private JdbcStub() {
+    }
+
+    static Connection connection() {
+        PreparedStatement statement = (PreparedStatement) Proxy.newProxyInstance(JdbcStub.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, stub());
+        InvocationHandler handler = (proxy, method, args) -> {
+            if (method.getName().equals("prepareStatement")) {
+                return statement;
+            }
+            return defaultValue(method.getReturnType());
+        };
+        return (Connection) Proxy.newProxyInstance(JdbcStub.class.getClassLoader(), new Class<?>[]{Connection.class}, handler);
+    }
+
+    private static InvocationHandler stub() {
+        return (proxy, method, args) -> defaultValue(method.getReturnType());
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == int.class) {
+            return 0;
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,106 @@
+package ru.webgrozny.iql.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import ru.webgrozny.iql.CompiledQuery;
+import ru.webgrozny.iql.IQL;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Rendering of values into SQL of built multi-row insert, by number of rows: single pass renderer of getSQL()
+ * against QueryFilter, that was used before it and searched every placeholder from the start of SQL
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RenderBenchmark {
+    @Param({"10", "100", "1000", "10000"})
+    int rows;
+
+    private Object[][] data;
+    private CompiledQuery query;
+
+    @Setup
+    public void setup() {
+        data = new Object[rows][];
+        IQL iql = new IQL().addTable("items").setInsertFields("name %s", "count %i", "price %f", "active %b");
+        for (int i = 0; i < rows; i++) {
+            data[i] = new Object[]{"name '" + i + "'", i, i * 0.5f, i % 2 == 0};
+            iql.insert(data[i]);
+        }
+        query = iql.build();
+    }
+
+    @Benchmark
+    public String singlePass() {
+        return query.render();
+    }
+
+    @Benchmark
+    public String queryFilter() {
+        LegacyQueryFilter filter = new LegacyQueryFilter(query.getSql());
+        for (Object[] row : data) {
+            filter.setString((String) row[0]);
+            filter.setInt((int) row[1]);
+            filter.setFloat((float) row[2]);
+            filter.setBoolean((boolean) row[3]);
+        }
+        return filter.toString();
+    }
+
+    /**
+     * Copy of QueryFilter before single pass renderer
+     */
+    static final class LegacyQueryFilter {
+        private String sql;
+
+        LegacyQueryFilter(String sql) {
+            this.sql = sql;
+        }
+
+        void setInt(int val) {
+            int pos = sql.indexOf('?');
+            sql = sql.substring(0, pos) + val + sql.substring(pos + 1);
+        }
+
+        void setString(String str) {
+            int pos = sql.indexOf('?');
+            sql = sql.substring(0, pos) + '\'' + escapeString(str) + '\'' + sql.substring(pos + 1);
+        }
+
+        void setBoolean(boolean boolVal) {
+            int pos = sql.indexOf('?');
+            sql = sql.substring(0, pos) + (boolVal ? 1 : 0) + sql.substring(pos + 1);
+        }
+
+        void setFloat(float floatVal) {
+            int pos = sql.indexOf('?');
+            sql = sql.substring(0, pos) + floatVal + sql.substring(pos + 1);
+        }
+
+        private String escapeString(String str) {
+            str = str.replace("\\", "\\\\").replace("'", "\\'");
+            Pattern pat = Pattern.compile("\\\\'");
+            Matcher matcher = pat.matcher(str);
+            int cnt = 0;
+            while (matcher.find()) {
+                String found = matcher.group();
+                if (found.length() % 2 > 0) {
+                    str = str.substring(0, matcher.start() + cnt) + "\\" + str.substring(matcher.start() + cnt);
+                    cnt++;
+                }
+            }
+            return str;
+        }
+
+        @Override
+        public String toString() {
+            return sql;
+        }
+    }
+}
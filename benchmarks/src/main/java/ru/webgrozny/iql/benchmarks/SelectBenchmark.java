@@ -0,0 +1,51 @@
+package ru.webgrozny.iql.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import ru.webgrozny.iql.CompiledQuery;
+import ru.webgrozny.iql.IQL;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building typical select with join, where, order and limit
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SelectBenchmark {
+    @Param({"true", "false"})
+    boolean sqlCache;
+
+    private final IQL iql = new IQL();
+
+    @Setup
+    public void setup() {
+        IQL.setSqlCache(sqlCache ? new ru.webgrozny.iql.cache.SqlCache(1024) : null);
+    }
+
+    @Benchmark
+    public CompiledQuery buildSelect() {
+        return iql.addTable("users", "groups")
+                .setTable(1)
+                .select("id %i", "name", "group_id %i")
+                .join(1, "group_id", 2, "id", IQL.JOIN_LEFT)
+                .where("age %i", IQL.MORE, 18)
+                .and()
+                .where("name %s", IQL.LIKE, "a%")
+                .orderBy("name", IQL.ASC)
+                .limit(20, 10)
+                .build();
+    }
+
+    @Benchmark
+    public String renderSelect() {
+        return iql.addTable("users")
+                .select("id %i", "name")
+                .where("age %i", IQL.MORE, 18)
+                .orderBy("name", IQL.DESC)
+                .getSQL();
+    }
+}
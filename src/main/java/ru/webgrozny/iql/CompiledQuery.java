@@ -0,0 +1,508 @@
+package ru.webgrozny.iql;
+
+import ru.webgrozny.iql.cache.ResultCache;
+import ru.webgrozny.iql.exceptions.DataRowsCountMismatchException;
+import ru.webgrozny.iql.metrics.Phase;
+import ru.webgrozny.iql.metrics.QueryMetrics;
+import ru.webgrozny.iql.metrics.QueryRecorder;
+import ru.webgrozny.iql.metrics.SlowQueryLog;
+import ru.webgrozny.iql.queryfilter.SqlRenderer;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Immutable query, built by IQL.build(): SQL text, inserted rows, parameter types and bound values.
+ * Can be shared between threads without synchronization. bind() creates new query with other values and the same SQL
+ */
+public final class CompiledQuery {
+    private static final int NO_STATEMENT_CONSTANT = Integer.MIN_VALUE;
+
+    private final QueryMeta meta;
+    private final String sql;
+    private final RowBuffer rows;
+    private final DataType[] types;
+    private final Object[] values;
+
+    /**
+     * Arrays are not copied: they may be shared with other queries and must not be changed after query is created
+     * @param rows inserted rows, bound before values, or null. Must not be changed after query is created
+     * @param types types of values
+     * @param values bound values, converted to types
+     */
+    CompiledQuery(QueryMeta meta, String sql, RowBuffer rows, DataType[] types, Object[] values) {
+        this.meta = meta;
+        this.sql = sql;
+        this.rows = rows;
+        this.types = types;
+        this.values = values;
+    }
+
+    Operation getOperation() {
+        return meta.getOperation();
+    }
+
+    QueryMeta getMeta() {
+        return meta;
+    }
+
+    /**
+     * @return SQL text with ? placeholders
+     */
+    public String getSql() {
+        return sql;
+    }
+
+    public int getParameterCount() {
+        return getRowParameterCount() + types.length;
+    }
+
+    private int getRowParameterCount() {
+        return rows == null ? 0 : rows.size() * rows.getColumnCount();
+    }
+
+    /**
+     * @param index parameter index, started from 1
+     * @return bound value, converted to parameter type
+     */
+    public Object getValue(int index) {
+        int rowParameters = getRowParameterCount();
+        if (index <= rowParameters) {
+            return rows.get((index - 1) / rows.getColumnCount(), (index - 1) % rows.getColumnCount());
+        }
+        return values[index - 1 - rowParameters];
+    }
+
+    /**
+     * @return types of all parameters, including inserted rows
+     */
+    private DataType[] getAllTypes() {
+        if (rows == null) {
+            return types;
+        }
+        DataType[] all = new DataType[getParameterCount()];
+        DataType[] rowTypes = rows.getTypes();
+        int rowParameters = getRowParameterCount();
+        for (int i = 0; i < rowParameters; i++) {
+            all[i] = rowTypes[i % rowTypes.length];
+        }
+        System.arraycopy(types, 0, all, rowParameters, types.length);
+        return all;
+    }
+
+    /**
+     * Creates query with the same SQL and new values. Values are converted to parameter types
+     * with filters and date format, set in IQL at the moment of call
+     * @param values values for all parameters
+     * @return new query
+     */
+    public CompiledQuery bind(Object... values) {
+        DataType[] allTypes = getAllTypes();
+        if (values.length != allTypes.length) {
+            throw new DataRowsCountMismatchException();
+        }
+        Object[] bound = new Object[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bound[i] = IQL.prepareValue(allTypes[i], values[i]);
+        }
+        return new CompiledQuery(meta, sql, null, allTypes, bound);
+    }
+
+    /**
+     * Creates query with the same SQL and a range of values replaced. Values must be already converted
+     * @param from index in values of first replaced value, started from 0
+     * @param replaced new values
+     * @return new query
+     */
+    CompiledQuery withValues(int from, Object[] replaced) {
+        Object[] bound = values.clone();
+        System.arraycopy(replaced, 0, bound, from, replaced.length);
+        return new CompiledQuery(meta, sql, rows, types, bound);
+    }
+
+    /**
+     * Creates query with the same SQL and one value replaced
+     * @param index parameter index, started from 1
+     * @param value new value
+     * @return new query
+     */
+    public CompiledQuery bind(int index, Object value) {
+        DataType[] allTypes = getAllTypes();
+        Object[] bound = new Object[allTypes.length];
+        for (int i = 0; i < bound.length; i++) {
+            bound[i] = i == index - 1 ? IQL.prepareValue(allTypes[i], value) : getValue(i + 1);
+        }
+        return new CompiledQuery(meta, sql, null, allTypes, bound);
+    }
+
+    /**
+     * Prepares statement with values set. If query writes, cached results of its table are dropped,
+     * see invalidateResults()
+     * @param con connection to prepare statement
+     * @return prepared statement with values set
+     * @throws SQLException if statement can not be prepared
+     */
+    public PreparedStatement prepare(Connection con) throws SQLException {
+        return prepare(con, NO_STATEMENT_CONSTANT);
+    }
+
+    /**
+     * @param con connection to prepare statement
+     * @param statementConstant constant for Connection.prepareStatement(String, int)
+     * @return prepared statement with values set
+     * @throws SQLException if statement can not be prepared
+     */
+    public PreparedStatement prepare(Connection con, int statementConstant) throws SQLException {
+        PreparedStatement ps = prepare(con, statementConstant, getRecorder());
+        invalidateResults(con);
+        return ps;
+    }
+
+    /**
+     * Drops results of table of query in database of connection from result cache, set by IQL.setResultCache(),
+     * if query is not select. Statements, handed out by prepare() and bindTo(), are executed by caller, so results
+     * are dropped when statement is handed out: select, cached between that and execution, stays stale until next
+     * write to table or TTL
+     * @param con connection, which executes query
+     */
+    void invalidateResults(Connection con) {
+        if (getOperation() != Operation.SELECT && meta.getTables().length > 0) {
+            IQL.invalidateResults(con, meta.getTables()[0]);
+        }
+    }
+
+    /**
+     * @return recorder of metrics, set by IQL.setMetrics(), for this query, or null
+     */
+    private QueryRecorder getRecorder() {
+        QueryMetrics metrics = IQL.getMetrics();
+        return metrics == null ? null : metrics.forSql(sql);
+    }
+
+    private PreparedStatement prepare(Connection con, int statementConstant, QueryRecorder recorder) throws SQLException {
+        if (recorder == null) {
+            return bindTo(createStatement(con, statementConstant));
+        }
+        try {
+            long start = System.nanoTime();
+            PreparedStatement ps = createStatement(con, statementConstant);
+            long prepared = System.nanoTime();
+            recorder.record(Phase.PREPARE, prepared - start);
+            bindTo(ps);
+            recorder.record(Phase.BIND, System.nanoTime() - prepared);
+            return ps;
+        } catch (SQLException | RuntimeException e) {
+            recorder.recordError();
+            throw e;
+        }
+    }
+
+    private PreparedStatement createStatement(Connection con, int statementConstant) throws SQLException {
+        return statementConstant == NO_STATEMENT_CONSTANT ? con.prepareStatement(sql) : con.prepareStatement(sql, statementConstant);
+    }
+
+    /**
+     * Sets values of query to statement, prepared for SQL of query. If query writes, cached results
+     * of its table are dropped
+     * @param ps prepared statement
+     * @return ps
+     * @throws SQLException if values can not be set
+     */
+    public PreparedStatement bindTo(PreparedStatement ps) throws SQLException {
+        try {
+            bindTo(ps, 1);
+        } catch (SQLException e) {
+            ps.close();
+            throw e;
+        }
+        if (getOperation() != Operation.SELECT) {
+            invalidateResults(ps.getConnection());
+        }
+        return ps;
+    }
+
+    /**
+     * Prepares EXPLAIN of query with values set. Statement only reads plan, so cached results are not dropped
+     * @param con connection to prepare statement
+     * @return prepared statement of EXPLAIN
+     * @throws SQLException if statement can not be prepared
+     */
+    public PreparedStatement prepareExplain(Connection con) throws SQLException {
+        PreparedStatement ps = con.prepareStatement("EXPLAIN " + sql);
+        try {
+            bindTo(ps, 1);
+        } catch (SQLException e) {
+            ps.close();
+            throw e;
+        }
+        return ps;
+    }
+
+    /**
+     * Sets values of query to statement, starting from parameter index, for example to statement of several queries
+     * @param ps prepared statement
+     * @param index index of first parameter
+     * @return index of next parameter
+     * @throws SQLException if values can not be set
+     */
+    int bindTo(PreparedStatement ps, int index) throws SQLException {
+        if (rows != null) {
+            index = rows.bind(ps, 0, rows.size(), index);
+        }
+        for (int i = 0; i < types.length; i++) {
+            setValue(ps, index++, types[i], values[i]);
+        }
+        return index;
+    }
+
+    /**
+     * Executes insert, update, delete or create query
+     * @param con connection to execute query
+     * @return update count
+     * @throws SQLException if query failed
+     */
+    public int execute(Connection con) throws SQLException {
+        return execute(con, 0);
+    }
+
+    /**
+     * @param timeout query timeout in seconds for Statement.setQueryTimeout() or zero for no timeout
+     */
+    int execute(Connection con, int timeout) throws SQLException {
+        QueryRecorder recorder = getRecorder();
+        try (PreparedStatement ps = prepare(con, NO_STATEMENT_CONSTANT, recorder)) {
+            setTimeout(ps, timeout);
+            long start = System.nanoTime();
+            int count;
+            try {
+                count = ps.executeUpdate();
+            } catch (SQLException e) {
+                recordError(recorder);
+                throw e;
+            } finally {
+                invalidateResults(con);
+            }
+            recordExecution(recorder, start, count);
+            return count;
+        }
+    }
+
+    private static void setTimeout(PreparedStatement ps, int timeout) throws SQLException {
+        if (timeout > 0) {
+            ps.setQueryTimeout(timeout);
+        }
+    }
+
+    private void recordExecution(QueryRecorder recorder, long start, long rows) {
+        long nanos = System.nanoTime() - start;
+        if (recorder != null) {
+            recorder.record(Phase.EXECUTE, nanos);
+            recorder.recordRows(rows);
+        }
+        logIfSlow(nanos);
+    }
+
+    /**
+     * Passes query to slow query log, set by IQL.setSlowQueryLog(), if execution took more than its threshold
+     * @param nanos duration of execution
+     */
+    private void logIfSlow(long nanos) {
+        SlowQueryLog log = IQL.getSlowQueryLog();
+        if (log != null && log.isSlow(nanos)) {
+            log.record(this, nanos, getOperation() != Operation.CREATE);
+        }
+    }
+
+    private static void recordError(QueryRecorder recorder) {
+        if (recorder != null) {
+            recorder.recordError();
+        }
+    }
+
+    /**
+     * Executes query and maps every row of result to object of type.
+     * Result is taken from and put to result cache, if it is set by IQL.setResultCache(). Then returned objects
+     * may be shared with other callers and must not be modified
+     * @param con connection to execute query
+     * @param type class of result objects
+     * @return list of mapped objects
+     * @throws SQLException if query failed
+     */
+    public <T> List<T> query(Connection con, Class<T> type) throws SQLException {
+        return query(con, type, 0);
+    }
+
+    /**
+     * @param timeout query timeout in seconds for Statement.setQueryTimeout() or zero for no timeout
+     */
+    <T> List<T> query(Connection con, Class<T> type, int timeout) throws SQLException {
+        ResultCache cache = IQL.getResultCache();
+        if (cache == null || rows != null || getOperation() != Operation.SELECT) {
+            return query(con, type, null, timeout);
+        }
+        String database = IQL.getDatabase(con);
+        if (database == null) {
+            return query(con, type, null, timeout);
+        }
+        List<T> cached = cache.get(database, sql, values, type);
+        if (cached != null) {
+            return cached;
+        }
+        String[] tables = meta.getTables();
+        long[] versions = cache.getVersions(database, tables);
+        List<T> result = query(con, type, null, timeout);
+        cache.put(database, sql, values, type, tables, versions, result, meta.getColumnCount() > 0 ? meta.getColumnCount() : 8);
+        return result;
+    }
+
+    /**
+     * Executes query and maps every row of result with mapper
+     * @param con connection to execute query
+     * @param mapper row mapper
+     * @return list of mapped objects
+     * @throws SQLException if query failed
+     */
+    public <T> List<T> query(Connection con, RowMapper<T> mapper) throws SQLException {
+        return query(con, null, mapper, 0);
+    }
+
+    <T> List<T> query(Connection con, RowMapper<T> mapper, int timeout) throws SQLException {
+        return query(con, null, mapper, timeout);
+    }
+
+    /**
+     * @param type class of result objects, if mapper is null
+     */
+    private <T> List<T> query(Connection con, Class<T> type, RowMapper<T> mapper, int timeout) throws SQLException {
+        QueryRecorder recorder = getRecorder();
+        try (PreparedStatement ps = prepare(con, NO_STATEMENT_CONSTANT, recorder)) {
+            setTimeout(ps, timeout);
+            long start = System.nanoTime();
+            List<T> result = new ArrayList<>();
+            try (ResultSet rs = ps.executeQuery()) {
+                RowMapper<T> rowMapper = mapper != null ? mapper : ResultMapping.get(type, this, rs.getMetaData());
+                while (rs.next()) {
+                    result.add(rowMapper.map(rs));
+                }
+            } catch (SQLException | RuntimeException e) {
+                recordError(recorder);
+                throw e;
+            }
+            recordExecution(recorder, start, result.size());
+            return result;
+        }
+    }
+
+    /**
+     * Executes query and maps rows of result to objects of type, while iterating
+     * @param con connection to execute query
+     * @param type class of result objects
+     * @return iterator over mapped objects, that must be closed
+     * @throws SQLException if query failed
+     */
+    public <T> ResultIterator<T> iterate(Connection con, Class<T> type) throws SQLException {
+        QueryRecorder recorder = getRecorder();
+        PreparedStatement ps = prepare(con, NO_STATEMENT_CONSTANT, recorder);
+        try {
+            long start = System.nanoTime();
+            ResultSet rs = ps.executeQuery();
+            long nanos = System.nanoTime() - start;
+            if (recorder != null) {
+                recorder.record(Phase.EXECUTE, nanos);
+            }
+            logIfSlow(nanos);
+            return new ResultIterator<>(ps, rs, ResultMapping.get(type, this, rs.getMetaData()));
+        } catch (SQLException | RuntimeException e) {
+            recordError(recorder);
+            ps.close();
+            throw e;
+        }
+    }
+
+    static void setValue(PreparedStatement ps, int index, DataType type, Object data) throws SQLException {
+        switch (type) {
+            case RT_S:
+            case RT_V:
+            case RT_T:
+                ps.setString(index, (String) data);
+                break;
+            case RT_I:
+            case RT_D:
+                ps.setInt(index, (int) data);
+                break;
+            case RT_B:
+                ps.setBoolean(index, (boolean) data);
+                break;
+            case RT_F:
+                ps.setFloat(index, (float) data);
+        }
+    }
+
+    /**
+     * @return SQL text with values rendered into placeholders, booleans are rendered by current dialect
+     */
+    public String render() {
+        return render(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Renders values only until result reaches maxLength, so large inserts are not rendered completely
+     * @param maxLength max length of result
+     * @return first maxLength chars of SQL text with values rendered into placeholders
+     */
+    public String render(int maxLength) {
+        SqlRenderer renderer = new SqlRenderer(sql, estimateRenderedLength(maxLength), IQL.getDialect()).setLimit(maxLength);
+        if (rows != null) {
+            rows.render(renderer);
+        }
+        for (int i = 0; i < types.length && !renderer.isFull(); i++) {
+            switch (types[i]) {
+                case RT_S:
+                case RT_V:
+                case RT_T:
+                    renderer.setString((String) values[i]);
+                    break;
+                case RT_I:
+                case RT_D:
+                    renderer.setInt((int) values[i]);
+                    break;
+                case RT_B:
+                    renderer.setBoolean((boolean) values[i]);
+                    break;
+                case RT_F:
+                    renderer.setFloat((float) values[i]);
+            }
+        }
+        return renderer.toString();
+    }
+
+    /**
+     * @return capacity of renderer buffer: expected length of rendered SQL, or length of SQL for limited rendering
+     */
+    private int estimateRenderedLength(int maxLength) {
+        if (maxLength != Integer.MAX_VALUE) {
+            return Math.min(sql.length(), maxLength) + 64;
+        }
+        int capacity = sql.length() + (rows == null ? 0 : rows.estimateRenderedLength());
+        for (int i = 0; i < types.length; i++) {
+            switch (types[i]) {
+                case RT_S:
+                case RT_V:
+                case RT_T:
+                    capacity += SqlRenderer.estimateLength((String) values[i]);
+                    break;
+                default:
+                    capacity += 11;
+            }
+        }
+        return capacity;
+    }
+
+    public String toString() {
+        return render();
+    }
+}
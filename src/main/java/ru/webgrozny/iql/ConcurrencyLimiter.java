@@ -0,0 +1,264 @@
+package ru.webgrozny.iql;
+
+import ru.webgrozny.iql.exceptions.ConcurrencyLimitException;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits number of concurrent queries to one database. Limit is adapted by latency gradient, only while
+ * number of running queries is close to limit: it grows by one per limit of queries while short-term average
+ * latency stays near long-term average, is multiplied by 0.9 when short-term average exceeds long-term one
+ * by tolerance and is halved when a query times out. Query, which exceeds limit, waits in bounded
+ * queue or fails with ConcurrencyLimitException. Every query takes its own connection from data source
+ */
+public class ConcurrencyLimiter {
+    private static final double SHORT_WEIGHT = 0.1;
+    private static final double LONG_WEIGHT = 0.01;
+    private static final double SATURATION = 0.9;
+
+    private final DataSource dataSource;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private int minLimit = 1;
+    private int maxLimit = 200;
+    private double limit = 20;
+    private int inFlight;
+    private int waiting;
+    private int queueSize;
+    private long queueTimeoutNanos;
+    private double tolerance = 2;
+    private double shortNanos;
+    private double longNanos;
+    private long rejected;
+    private volatile int queryTimeout;
+
+    /**
+     * @param dataSource source of connections to limited database
+     */
+    public ConcurrencyLimiter(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * @param initial initial limit (Default: 20)
+     * @param min min limit (Default: 1)
+     * @param max max limit (Default: 200)
+     * @return this
+     */
+    public ConcurrencyLimiter setLimits(int initial, int min, int max) {
+        lock.lock();
+        try {
+            minLimit = Math.max(min, 1);
+            maxLimit = Math.max(max, minLimit);
+            limit = Math.min(Math.max(initial, minLimit), maxLimit);
+        } finally {
+            lock.unlock();
+        }
+        return this;
+    }
+
+    /**
+     * @param size max number of queries, waiting for limit. Zero fails queries over limit at once (Default: 0)
+     * @param timeout max time of waiting
+     * @return this
+     */
+    public ConcurrencyLimiter setQueue(int size, long timeout, TimeUnit unit) {
+        lock.lock();
+        try {
+            queueSize = size;
+            queueTimeoutNanos = unit.toNanos(timeout);
+        } finally {
+            lock.unlock();
+        }
+        return this;
+    }
+
+    /**
+     * @param tolerance ratio of short-term to long-term average latency, above which limit is decreased (Default: 2)
+     * @return this
+     */
+    public ConcurrencyLimiter setTolerance(double tolerance) {
+        lock.lock();
+        try {
+            this.tolerance = tolerance;
+        } finally {
+            lock.unlock();
+        }
+        return this;
+    }
+
+    /**
+     * @param seconds timeout of every query for Statement.setQueryTimeout() or zero for no timeout (Default: 0)
+     * @return this
+     */
+    public ConcurrencyLimiter setQueryTimeout(int seconds) {
+        this.queryTimeout = seconds;
+        return this;
+    }
+
+    /**
+     * @return current limit of concurrent queries
+     */
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of queries, failed with ConcurrencyLimitException
+     */
+    public long getRejected() {
+        lock.lock();
+        try {
+            return rejected;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Builds query in calling thread and executes it within limit
+     * @param query insert, update, delete or create query
+     * @return update count
+     * @throws SQLException if query failed
+     */
+    public int execute(IQL query) throws SQLException {
+        return execute(query.build());
+    }
+
+    public int execute(CompiledQuery query) throws SQLException {
+        return limited(con -> query.execute(con, queryTimeout));
+    }
+
+    /**
+     * Builds select in calling thread, executes it within limit and maps result rows to type
+     * @param query select query
+     * @param type class of result objects
+     * @return mapped objects
+     * @throws SQLException if query failed
+     */
+    public <T> List<T> query(IQL query, Class<T> type) throws SQLException {
+        return query(query.build(), type);
+    }
+
+    public <T> List<T> query(CompiledQuery query, Class<T> type) throws SQLException {
+        return limited(con -> query.query(con, type, queryTimeout));
+    }
+
+    public <T> List<T> query(CompiledQuery query, RowMapper<T> mapper) throws SQLException {
+        return limited(con -> query.query(con, mapper, queryTimeout));
+    }
+
+    private interface ConnectionCallback<R> {
+        R apply(Connection con) throws SQLException;
+    }
+
+    private <R> R limited(ConnectionCallback<R> callback) throws SQLException {
+        acquire();
+        long start = System.nanoTime();
+        boolean timedOut = false;
+        try (Connection con = dataSource.getConnection()) {
+            return callback.apply(con);
+        } catch (SQLException e) {
+            timedOut = isTimeout(e);
+            throw e;
+        } finally {
+            release(System.nanoTime() - start, timedOut);
+        }
+    }
+
+    /**
+     * @return true if query was cancelled by timeout: SQLTimeoutException, SQL state 57014 (PostgreSQL, DB2),
+     * HY008 (H2, ODBC), 70100 or MySQL error 3024
+     */
+    private static boolean isTimeout(SQLException e) {
+        String state = e.getSQLState();
+        return e instanceof SQLTimeoutException || e.getErrorCode() == 3024
+                || "57014".equals(state) || "HY008".equals(state) || "70100".equals(state);
+    }
+
+    private void acquire() {
+        lock.lock();
+        try {
+            if (inFlight >= (int) limit) {
+                if (waiting >= queueSize) {
+                    rejected++;
+                    throw new ConcurrencyLimitException();
+                }
+                waiting++;
+                try {
+                    long nanos = queueTimeoutNanos;
+                    while (inFlight >= (int) limit) {
+                        if (nanos <= 0) {
+                            rejected++;
+                            throw new ConcurrencyLimitException();
+                        }
+                        nanos = released.awaitNanos(nanos);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    rejected++;
+                    throw new ConcurrencyLimitException();
+                } finally {
+                    waiting--;
+                }
+            }
+            inFlight++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adapts limit by latency of finished query and wakes waiting queries
+     * @param nanos duration of query, including taking connection
+     * @param timedOut true if query was cancelled by timeout
+     */
+    private void release(long nanos, boolean timedOut) {
+        lock.lock();
+        try {
+            boolean saturated = inFlight >= Math.max(1, (int) (limit * SATURATION));
+            inFlight--;
+            if (longNanos == 0) {
+                shortNanos = nanos;
+                longNanos = nanos;
+            } else {
+                shortNanos += (nanos - shortNanos) * SHORT_WEIGHT;
+                longNanos += (nanos - longNanos) * LONG_WEIGHT;
+            }
+            if (saturated) {
+                if (timedOut) {
+                    limit = limit / 2;
+                } else if (shortNanos > longNanos * tolerance) {
+                    limit = limit * 0.9;
+                } else {
+                    limit = limit + 1 / limit;
+                }
+                limit = Math.min(Math.max(limit, minLimit), maxLimit);
+            }
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
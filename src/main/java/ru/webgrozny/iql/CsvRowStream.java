@@ -0,0 +1,60 @@
+package ru.webgrozny.iql;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * UTF-8 CSV stream of rows of buffer. Rows are encoded on demand, a block of rows at a time,
+ * so the whole CSV is never kept in memory
+ */
+final class CsvRowStream extends InputStream {
+    private static final int ROWS_PER_BLOCK = 256;
+
+    private final RowBuffer rows;
+    private final String nullToken;
+    private final StringBuilder text = new StringBuilder();
+    private byte[] block = new byte[0];
+    private int position;
+    private int nextRow;
+
+    CsvRowStream(RowBuffer rows, String nullToken) {
+        this.rows = rows;
+        this.nullToken = nullToken;
+    }
+
+    private boolean fill() {
+        if (nextRow >= rows.size()) {
+            return false;
+        }
+        text.setLength(0);
+        int last = Math.min(rows.size(), nextRow + ROWS_PER_BLOCK);
+        for (; nextRow < last; nextRow++) {
+            rows.appendCsv(nextRow, text, nullToken);
+        }
+        block = text.toString().getBytes(StandardCharsets.UTF_8);
+        position = 0;
+        return true;
+    }
+
+    @Override
+    public int read() {
+        if (position == block.length && !fill()) {
+            return -1;
+        }
+        return block[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) {
+        if (length == 0) {
+            return 0;
+        }
+        if (position == block.length && !fill()) {
+            return -1;
+        }
+        int count = Math.min(length, block.length - position);
+        System.arraycopy(block, position, buffer, offset, count);
+        position += count;
+        return count;
+    }
+}
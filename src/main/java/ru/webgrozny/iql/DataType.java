@@ -1,11 +1,24 @@
 package ru.webgrozny.iql;
 
 enum DataType {
-    RT_S, //varchar
-    RT_V, //varchar without filter
-    RT_T, //text
-    RT_I, //integer
-    RT_B, //boolean
-    RT_D, //date
-    RT_F; //float
+    RT_S('s'), //varchar
+    RT_V('v'), //varchar without filter
+    RT_T('t'), //text
+    RT_I('i'), //integer
+    RT_B('b'), //boolean
+    RT_D('d'), //date
+    RT_F('f'); //float
+
+    private final char signature;
+
+    DataType(char signature) {
+        this.signature = signature;
+    }
+
+    /**
+     * @return type signature letter, used after % in field declaration
+     */
+    char getSignature() {
+        return signature;
+    }
 }
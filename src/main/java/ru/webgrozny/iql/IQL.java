@@ -1,14 +1,24 @@
 package ru.webgrozny.iql;
 
+import ru.webgrozny.iql.cache.ResultCache;
+import ru.webgrozny.iql.cache.SqlCache;
+import ru.webgrozny.iql.dialect.BulkLoader;
+import ru.webgrozny.iql.dialect.Dialect;
+import ru.webgrozny.iql.dialect.MySqlDialect;
 import ru.webgrozny.iql.exceptions.*;
-import ru.webgrozny.iql.queryfilter.QueryFilter;
+import ru.webgrozny.iql.metrics.Phase;
+import ru.webgrozny.iql.metrics.QueryMetrics;
+import ru.webgrozny.iql.metrics.SlowQueryLog;
+import ru.webgrozny.iql.pool.LeasedStatement;
+import ru.webgrozny.iql.pool.StatementPool;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.stream.Stream;
 
 public class IQL {
     public static final String EQUAL = "=";
@@ -34,14 +44,29 @@ public class IQL {
     private static StringFilter stringParser = (s) -> s;
     private static StringFilter textParser = (s) -> s;
     private static String dateFormat = "dd.MM.yyyy";
+    private static SqlCache sqlCache = new SqlCache(1024);
+    private static QueryMetrics metrics;
+    private static SlowQueryLog slowQueryLog;
+    private static Dialect dialect = new MySqlDialect();
+    private static QuotedNames quotedNames = new QuotedNames(dialect);
+    private static final ThreadLocal<IQL> ARENA = ThreadLocal.withInitial(IQL::new);
+    private static ResultCache resultCache;
 
     private static int NO_STATEMENT_CONSTANT = -65535;
+    static final int MAX_PARAMETERS = 65535;
+    private static final int MIN_IN_BUCKET = 8;
+    private static final int MAX_IN_BUCKET = 1024;
+    private static final int CHUNKS_PER_BATCH = 16;
+    private static final int MAX_CACHED_PARTS = 256;
+    private static final int MAX_RETAINED_CHARS = 1 << 16;
+    private static final int MAX_RETAINED_VALUES = 4096;
 
     private Connection con;
+    private StatementPool statementPool;
     private List<String> tables;
     private Operation opType;
     private Field[] modifyingFields;
-    private List<Object[]> insertableData;
+    private RowBuffer insertableData;
     private Object[] updateData;
     private StringBuilder sql;
     private List<PreparedData> preparedQueryData;
@@ -55,12 +80,40 @@ public class IQL {
     private List<Join> joins;
     private List<Order> orders;
     private List<Group> groups;
-    private String limit;
+    private boolean limited;
+    private int limitFrom;
+    private int limitTo;
     private String selectRaw;
+    private String[] upsertKeys;
+    private boolean bulkUpdate;
+    private ChunkedIn chunkedIn;
+    private int chunkedInParameter;
     private boolean whereOr = false;
+    private boolean whereHasOr;
     private String codepage = "utf8";
+    private final List<PreparedData> preparedPool = new ArrayList<>();
+    private int preparedPoolUsed;
+    private final Map<String, Field> parsedFields = new HashMap<>();
+    private final Map<String, SelectedField> selectedFieldCache = new HashMap<>();
+    private final Map<String, Order> orderCache = new HashMap<>();
+    private final Map<String, Group> groupCache = new HashMap<>();
+    private ShapeKey shape = new ShapeKey(256);
+    private String lastSql;
+    private QueryMeta lastMeta;
+    private DataType[] lastTypes;
 
     public IQL(Connection con) {
+        tables = new ArrayList<>();
+        preparedQueryData = new ArrayList<>();
+        preparedWhereData = new ArrayList<>();
+        createFields = new ArrayList<>();
+        selectedFields = new ArrayList<>();
+        excludedTables = new ArrayList<>();
+        joins = new ArrayList<>();
+        orders = new ArrayList<>();
+        groups = new ArrayList<>();
+        where = new StringBuilder();
+        sql = new StringBuilder();
         reset();
         setConnection(con);
     }
@@ -69,25 +122,53 @@ public class IQL {
         this(null);
     }
 
+    /**
+     * Builder of current thread. Collections and buffers of builder are cleared instead of allocated for every query,
+     * so repeated building of queries with cached SQL produces almost no garbage. Builder must not be passed to other threads
+     * @param con connection to database
+     * @return reset builder of current thread
+     */
+    public static IQL local(Connection con) {
+        IQL iql = ARENA.get();
+        iql.reset();
+        if (iql.con != con) {
+            iql.statementPool = null;
+        }
+        return iql.setConnection(con);
+    }
+
     /**
      * Will reset object
      */
     public void reset() {
         opType = Operation.NOT_SET;
-        preparedWhereData = new ArrayList<>();
-        createFields = new ArrayList<>();
-        tables = new ArrayList<>();
-        insertableData = new ArrayList<>();
+        preparedWhereData.clear();
+        preparedQueryData.clear();
+        createFields.clear();
+        tables.clear();
+        insertableData = null;
+        updateData = null;
         openBracketsCnt = 0;
         currentTableIndex = 0;
-        where = new StringBuilder();
-        selectedFields = new ArrayList<>();
-        excludedTables = new ArrayList<>();
-        joins = new ArrayList<>();
-        orders = new ArrayList<>();
-        groups = new ArrayList<>();
-        limit = null;
+        where.setLength(0);
+        if (where.capacity() > MAX_RETAINED_CHARS) {
+            where = new StringBuilder();
+        }
+        selectedFields.clear();
+        excludedTables.clear();
+        joins.clear();
+        orders.clear();
+        groups.clear();
+        if (preparedPool.size() > MAX_RETAINED_VALUES) {
+            preparedPool.clear();
+        }
+        preparedPoolUsed = 0;
+        limited = false;
         selectRaw = null;
+        upsertKeys = null;
+        bulkUpdate = false;
+        chunkedIn = null;
+        whereHasOr = false;
     }
 
     public void setCodepage(String codepage) {
@@ -104,6 +185,16 @@ public class IQL {
         return this;
     }
 
+    /**
+     * Sets pool of prepared statements, used by leaseStatement(). Pool must be created for the same connection
+     * @param pool statement pool or null
+     * @return this
+     */
+    public IQL setStatementPool(StatementPool pool) {
+        this.statementPool = pool;
+        return this;
+    }
+
     /**
      * @param sf Filter for %s type, before inserting to query
      */
@@ -125,14 +216,150 @@ public class IQL {
         dateFormat = format;
     }
 
+    static StringFilter getStringFilter() {
+        return stringParser;
+    }
+
+    static StringFilter getTextFilter() {
+        return textParser;
+    }
+
+    static String getDateFormat() {
+        return dateFormat;
+    }
+
+    /**
+     * Sets cache of compiled SQL text. Queries with the same shape (tables, fields, where operators, joins, groups,
+     * orders and limit presence) reuse cached SQL and only bind new values
+     * @param cache cache to use or null to compile every query from scratch (Default: cache with 1024 shapes and 4M chars)
+     */
+    public static void setSqlCache(SqlCache cache) {
+        sqlCache = cache;
+    }
+
+    /**
+     * @param sqlDialect SQL syntax of database (Default: MySqlDialect). Where conditions are quoted at the moment of call,
+     *                   so dialect must be set before queries are built
+     */
+    public static void setDialect(Dialect sqlDialect) {
+        quotedNames = new QuotedNames(sqlDialect);
+        dialect = sqlDialect;
+    }
+
+    public static Dialect getDialect() {
+        return dialect;
+    }
+
+    /**
+     * @param identifier table, field or alias name
+     * @return identifier, quoted by dialect
+     */
+    private static String quote(String identifier) {
+        return quotedNames.quote(identifier);
+    }
+
+    private static String quote(String table, String field) {
+        return quotedNames.quote(table, field);
+    }
+
+    /**
+     * Sets cache of select results. query() returns cached result for the same database, SQL, values and result class,
+     * until IQL writes to one of tables of query in that database. Objects of cached result are shared between
+     * callers of query() and must not be modified
+     * @param cache cache to use or null to disable caching (Default: null)
+     */
+    public static void setResultCache(ResultCache cache) {
+        resultCache = cache;
+    }
+
+    public static ResultCache getResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * Drops cached results of queries to database of connection, that read table
+     * @param con connection, which modified table. If its database is unknown, results of all databases are dropped
+     * @param table modified table
+     */
+    static void invalidateResults(Connection con, String table) {
+        ResultCache cache = resultCache;
+        if (cache != null) {
+            String database = getDatabase(con);
+            if (database == null) {
+                cache.invalidate(table);
+            } else {
+                cache.invalidate(database, table);
+            }
+        }
+    }
+
+    /**
+     * @param con connection
+     * @return identity of database for result cache: JDBC URL of connection, or null if it is unknown
+     */
+    static String getDatabase(Connection con) {
+        try {
+            return con.getMetaData().getURL();
+        } catch (SQLException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return current cache of compiled SQL text, or null if caching is disabled
+     */
+    public static SqlCache getSqlCache() {
+        return sqlCache;
+    }
+
+    /**
+     * Sets metrics, which record build, prepare, bind and execute latencies by query fingerprint
+     * in build(), getStatement(), execute() and query()
+     * @param queryMetrics metrics or null to disable recording (Default: null)
+     */
+    public static void setMetrics(QueryMetrics queryMetrics) {
+        metrics = queryMetrics;
+    }
+
+    public static QueryMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets log of slow queries, executed by execute(), query() and iterate() of built queries
+     * @param log log or null to disable logging (Default: null)
+     */
+    public static void setSlowQueryLog(SlowQueryLog log) {
+        slowQueryLog = log;
+    }
+
+    public static SlowQueryLog getSlowQueryLog() {
+        return slowQueryLog;
+    }
+
     private class Field {
         String name;
         DataType type;
+        ValueCodec codec;
+        Class<?> codecInputClass;
 
         Field(String name, DataType type) {
             this.name = name;
             this.type = type;
         }
+
+        /**
+         * @param data input value
+         * @return codec for class of input value, selected once while class is not changed
+         */
+        ValueCodec getCodec(Object data) {
+            Class<?> inputClass = data == null ? null : data.getClass();
+            if (codec == null || inputClass != codecInputClass) {
+                codec = ValueCodec.select(type, inputClass);
+                codecInputClass = inputClass;
+            }
+            return codec;
+        }
     }
 
     private class PreparedData {
@@ -145,13 +372,45 @@ public class IQL {
         }
     }
 
+    /**
+     * @return value of where, update or limit, taken from pool of builder, that is returned to pool by reset()
+     */
+    private PreparedData prepared(Object data, DataType type) {
+        if (preparedPoolUsed < preparedPool.size()) {
+            PreparedData preparedData = preparedPool.get(preparedPoolUsed++);
+            preparedData.data = data;
+            preparedData.type = type;
+            return preparedData;
+        }
+        PreparedData preparedData = new PreparedData(data, type);
+        preparedPool.add(preparedData);
+        preparedPoolUsed++;
+        return preparedData;
+    }
+
+    /**
+     * Puts parsed part of query to cache of builder. Cache is cleared, when it is full
+     */
+    private static <T> void cachePart(Map<String, T> cache, String key, T value) {
+        if (cache.size() >= MAX_CACHED_PARTS) {
+            cache.clear();
+        }
+        cache.put(key, value);
+    }
+
     private class SelectedField {
         String table;
         String field;
         String alias;
+        DataType type;
 
         SelectedField(String field, int table) {
             this.table = tables.get(table - 1);
+            if (field.lastIndexOf('%') == field.length() - 2) {
+                Field parsed = parseField(field);
+                field = parsed.name;
+                type = parsed.type;
+            }
             if (field.indexOf(' ') != -1) {
                 String[] fieldVals = field.split(" ");
                 this.field = fieldVals[0];
@@ -184,7 +443,7 @@ public class IQL {
             this.type = type != null ? type : "";
         }
 
-        public String getCommand() {
+        void appendCommand(StringBuilder out) {
             String propSide;
             String propType;
             switch (side) {
@@ -211,8 +470,8 @@ public class IQL {
                     propType = "";
             }
 
-            String ret = propSide + propType + " JOIN `" + table2 + "` ON `" + table1 + "`.`" + field1 + "` = `" + table2 + "`.`" + field2 + "`";
-            return ret;
+            out.append(propSide).append(propType).append(" JOIN ").append(quote(table2)).append(" ON ")
+                    .append(quote(table1, field1)).append(" = ").append(quote(table2, field2));
         }
     }
 
@@ -220,8 +479,14 @@ public class IQL {
         String field;
         String type;
         int table;
+        DataType dataType;
 
         Order(String field, String type, int table) {
+            if (field.lastIndexOf('%') == field.length() - 2) {
+                Field parsed = parseField(field);
+                field = parsed.name;
+                dataType = parsed.type;
+            }
             this.field = field;
             this.type = type;
             this.table = table - 1;
@@ -234,13 +499,6 @@ public class IQL {
         Order(String field, String type) {
             this(field, type, currentTableIndex + 1);
         }
-
-        public String toString() {
-            String table = tables.get(this.table);
-            String type = this.type.equals(DESC) ? "DESC" : "ASC";
-            String ret = "`" + table + "`.`" + field + "` " + type;
-            return ret;
-        }
     }
 
     private class Group {
@@ -255,11 +513,24 @@ public class IQL {
         Group(String field) {
             this(field, currentTableIndex + 1);
         }
+    }
+
+    private Group getGroup(String field, int table) {
+        Group group = groupCache.get(field);
+        if (group == null || group.table != table - 1) {
+            group = new Group(field, table);
+            cachePart(groupCache, field, group);
+        }
+        return group;
+    }
 
-        public String toString() {
-            String table = tables.get(this.table);
-            return "`" + table + "`.`" + field + "`";
+    private Order getOrder(String field, String type, int table) {
+        Order order = orderCache.get(field);
+        if (order == null || order.table != table - 1 || !order.type.equals(type)) {
+            order = new Order(field, type, table);
+            cachePart(orderCache, field, order);
         }
+        return order;
     }
 
     /**
@@ -268,6 +539,15 @@ public class IQL {
      * @throws RowFormatException if type signature not found
      */
     private Field parseField(String field) throws RowFormatException {
+        Field parsed = parsedFields.get(field);
+        if (parsed == null) {
+            parsed = parseNewField(field);
+            cachePart(parsedFields, field, parsed);
+        }
+        return parsed;
+    }
+
+    private Field parseNewField(String field) throws RowFormatException {
         String name;
         DataType type;
         int delimiterIndex = field.lastIndexOf('%');
@@ -304,117 +584,6 @@ public class IQL {
         throw new RowFormatException();
     }
 
-    /**
-     * Used for type %v
-     * @param str Object, that contains string to parse
-     * @return parsed string
-     */
-    private String parseString(Object str) {
-        return (String) str;
-    }
-
-    /**
-     * Used for type %s
-     * @param str Object, that contains string to parse and filter with StringFilter object, set by setStringFilter()
-     * @return parsed string
-     */
-    private String parseStringFilter(Object str) { //RT_S
-        return stringParser.filter((String) str);
-    }
-
-    /**
-     * Used for type %t
-     * @param str Object, that contains string to parse and filter with StringFilter object, set by setTextFilter();
-     * @return parsed string
-     */
-    private String parseText(Object str) { //RT_T
-        return textParser.filter((String) str);
-    }
-
-    /**
-     * Used for type %i
-     * @param intVal Object, that contains Integer or String with integer value
-     * @return parsed integer
-     */
-    private int parseInt(Object intVal) {
-        int ret;
-        try {
-            ret = (Integer) intVal;
-        } catch (ClassCastException e) {
-            try {
-                ret = Integer.parseInt(intVal.toString());
-            } catch (NumberFormatException e2) {
-                ret = 0;
-            }
-        }
-        return ret;
-    }
-
-    /**
-     * Used for type %b
-     * @param booleanVal Object, that contains Boolean or String with boolean value
-     * @return parsed boolean
-     */
-    private boolean parseBoolean(Object booleanVal) {
-        boolean ret;
-        try {
-            ret = (Boolean) booleanVal;
-        } catch (ClassCastException e) {
-            ret = Boolean.parseBoolean(booleanVal.toString());
-        }
-        return ret;
-    }
-
-    /**
-     * Used for %d
-     * @param date Object, that contains Integer, String or Date with inserting date
-     * @return parsed integer date timestamp
-     */
-    private int parseDate(Object date) {
-        int ret;
-        try {
-            ret = (Integer) date;
-        } catch (ClassCastException e) {
-            Date d;
-            try {
-                d = (Date) date;
-            } catch (ClassCastException e1) {
-                try {
-                    String sDate = (String) date;
-                    SimpleDateFormat sdf = new SimpleDateFormat(dateFormat);
-                    d = sdf.parse(sDate);
-                } catch (ClassCastException e2) {
-                    throw new RowFormatException();
-                } catch (ParseException e3) {
-                    throw new RowFormatException();
-                }
-            }
-            long time = d.getTime();
-            ret = (int) (time / 1000l);
-        }
-
-        return ret;
-    }
-
-    /**
-     * Used for %f
-     * @param data Object, that contains Float or String value
-     * @return parsed float
-     */
-    private float parseFloat(Object data){
-        float ret;
-        try {
-            ret = (Float) data;
-        } catch (ClassCastException e0){
-            try {
-                ret = Float.parseFloat(data.toString());
-            }catch (NumberFormatException e1){
-                throw new RowFormatException();
-            }
-        }
-        return ret;
-    }
-
     /**
      * Data for preparator
      * @param field field to get type data
@@ -422,24 +591,16 @@ public class IQL {
      * @return Object, that contains right data type for set field type
      */
     private Object prepareForRow(Field field, Object data) {
-        switch (field.type) {
-            case RT_S:
-                return parseStringFilter(data);
-            case RT_V:
-                return parseString(data);
-            case RT_T:
-                return parseText(data);
-            case RT_I:
-                return parseInt(data);
-            case RT_B:
-                return parseBoolean(data);
-            case RT_D:
-                return parseDate(data);
-            case RT_F:
-                return parseFloat(data);
-            default:
-                throw new RowFormatException();
-        }
+        return field.getCodec(data).encode(data);
+    }
+
+    /**
+     * @param type data type
+     * @param data data, which will be parsed with type
+     * @return Object, that contains right data type for type
+     */
+    static Object prepareValue(DataType type, Object data) {
+        return ValueCodec.select(type, data == null ? null : data.getClass()).encode(data);
     }
 
     /**
@@ -447,7 +608,9 @@ public class IQL {
      * @return this
      */
     public IQL addTable(String... tables) {
-        this.tables.addAll(Arrays.asList(tables));
+        for (String table : tables) {
+            this.tables.add(table);
+        }
         if(tables.length == 1){
             currentTableIndex = this.tables.size() - 1;
         }
@@ -484,6 +647,7 @@ public class IQL {
     public IQL setInsertFields(String... fields) {
         opType = Operation.INSERT;
         setModifyingFields(fields);
+        insertableData = new RowBuffer(getModifyingTypes());
         return this;
     }
 
@@ -493,13 +657,49 @@ public class IQL {
      * @return this
      */
     public IQL insert(Object... data) {
+        addRow(insertableData, data);
+        return this;
+    }
+
+    private DataType[] getModifyingTypes() {
+        DataType[] types = new DataType[modifyingFields.length];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = modifyingFields[i].type;
+        }
+        return types;
+    }
+
+    /**
+     * Converts row data to types of fields, declared by setModifyingFields(), and adds it to buffer
+     * @param rows buffer
+     * @param data row data
+     */
+    private void addRow(RowBuffer rows, Object[] data) {
+        if (data.length != modifyingFields.length) {
+            throw new DataRowsCountMismatchException();
+        }
+        int row = rows.addRow();
+        try {
+            for (int i = 0; i < data.length; i++) {
+                rows.put(row, i, modifyingFields[i].getCodec(data[i]), data[i]);
+            }
+        } catch (RuntimeException e) {
+            rows.removeLastRow();
+            throw e;
+        }
+    }
+
+    /**
+     * @param data row data for fields, declared by setModifyingFields()
+     * @return row data, converted to field types
+     */
+    private Object[] prepareRow(Object[] data) {
         if (data.length == modifyingFields.length) {
-            Object[] toInsert = new Object[data.length];
+            Object[] row = new Object[data.length];
             for (int i = 0; i < data.length; i++) {
-                toInsert[i] = prepareForRow(modifyingFields[i], data[i]);
+                row[i] = prepareForRow(modifyingFields[i], data[i]);
             }
-            insertableData.add(toInsert);
-            return this;
+            return row;
         }
         throw new DataRowsCountMismatchException();
     }
@@ -521,15 +721,40 @@ public class IQL {
      * @return this
      */
     public IQL update(Object... data) {
-        if (data.length == modifyingFields.length) {
-            Object[] update = new Object[data.length];
-            for (int i = 0; i < data.length; i++) {
-                update[i] = prepareForRow(modifyingFields[i], data[i]);
-            }
-            updateData = update;
-            return this;
-        }
-        throw new DataRowsCountMismatchException();
+        updateData = prepareRow(data);
+        return this;
+    }
+
+    /**
+     * Setting fields to update rows with different values by one statement:
+     * UPDATE ... SET field = CASE key WHEN ? THEN ? ... END WHERE key IN (...)
+     * @param keyField key field with type signature, for example "id %i"
+     * @param fields field names with type signature to update
+     * @return this
+     */
+    public IQL setBulkUpdateFields(String keyField, String... fields) {
+        String[] allFields = new String[fields.length + 1];
+        allFields[0] = keyField;
+        System.arraycopy(fields, 0, allFields, 1, fields.length);
+        opType = Operation.UPDATE;
+        setModifyingFields(allFields);
+        insertableData = new RowBuffer(getModifyingTypes());
+        bulkUpdate = true;
+        return this;
+    }
+
+    /**
+     * Adds row to update, declared with setBulkUpdateFields()
+     * @param key value of key field
+     * @param data values of updated fields
+     * @return this
+     */
+    public IQL updateRow(Object key, Object... data) {
+        Object[] row = new Object[data.length + 1];
+        row[0] = key;
+        System.arraycopy(data, 0, row, 1, data.length);
+        addRow(insertableData, row);
+        return this;
     }
 
     /**
@@ -540,6 +765,7 @@ public class IQL {
     public IQL setUpsertFields(String... fields) {
         opType = Operation.UPSERT;
         setModifyingFields(fields);
+        insertableData = new RowBuffer(getModifyingTypes());
         return this;
     }
 
@@ -554,6 +780,20 @@ public class IQL {
         return this;
     }
 
+    /**
+     * Makes upsert without where a single INSERT ... ON DUPLICATE KEY UPDATE statement for all added rows,
+     * so rows are synced without selecting them first. Use with execute(), executeInsertBatch() or insertAll() for chunking
+     * @param keyFields fields of primary or unique key, which are not updated on conflict
+     * @return this
+     */
+    public IQL setUpsertKeys(String... keyFields) {
+        if (opType != Operation.UPSERT) {
+            throw new OperationNotSetException();
+        }
+        upsertKeys = keyFields;
+        return this;
+    }
+
     /**
      * DELETE field with id
      * @param id field id to delete
@@ -622,13 +862,20 @@ public class IQL {
 
     /**
      * Selects fields from table
-     * @param fields field to select
+     * @param fields field to select in format "name", "name alias", "name %i" or "name alias %i".
+     *               Type signature is optional and used by query() to read column with primitive getter
      * @return this
      */
     public IQL select(String... fields) {
         opType = Operation.SELECT;
+        String table = tables.get(currentTableIndex);
         for (String field : fields) {
-            selectedFields.add(new SelectedField(field));
+            SelectedField selected = selectedFieldCache.get(field);
+            if (selected == null || !selected.table.equals(table)) {
+                selected = new SelectedField(field);
+                cachePart(selectedFieldCache, field, selected);
+            }
+            selectedFields.add(selected);
         }
         return this;
     }
@@ -645,28 +892,144 @@ public class IQL {
     }
 
     /**
-     * Opens bracket in where
+     * Where field is one of values. Number of placeholders is rounded up to 8, 16, 32 ... 1024 by repeating
+     * the last value, so different list sizes produce a few SQL texts. Lists of more than 1024 distinct values
+     * are split into chunks: query() and execute() run query for every chunk and concatenate results or counts,
+     * build() throws ChunkedQueryException. Chunks are allowed only if where has no OR and query has no
+     * orders, groups, limit or raw select, so every row matches exactly one chunk; otherwise query() and execute()
+     * throw ChunkedQueryException. Only one such list is allowed in query
+     * @param what field with type signature, for example "id %i"
+     * @param values values to compare with
      * @return this
      */
-    public IQL openBracket() {
-        openBracketsCnt++;
-        return this;
+    public IQL whereIn(String what, Collection<?> values) {
+        return whereIn(what, values, false);
     }
 
     /**
-     * Closing bracket in where
+     * Where field is none of values. Number of placeholders is rounded up as in whereIn(),
+     * lists of more than 1024 distinct values are compared by several NOT IN conditions
+     * @param what field with type signature, for example "id %i"
+     * @param values values to compare with
      * @return this
      */
-    public IQL closeBracket() {
+    public IQL whereNotIn(String what, Collection<?> values) {
+        return whereIn(what, values, true);
+    }
+
+    private static class ChunkedIn {
+        final Object[] values;
+        final int whereIndex;
+
+        ChunkedIn(Object[] values, int whereIndex) {
+            this.values = values;
+            this.whereIndex = whereIndex;
+        }
+
+        /**
+         * @param from first value
+         * @return chunk of MAX_IN_BUCKET values, padded with the last value
+         */
+        Object[] getChunk(int from) {
+            Object[] chunk = new Object[MAX_IN_BUCKET];
+            int count = Math.min(MAX_IN_BUCKET, values.length - from);
+            System.arraycopy(values, from, chunk, 0, count);
+            Arrays.fill(chunk, count, MAX_IN_BUCKET, values[from + count - 1]);
+            return chunk;
+        }
+    }
+
+    private IQL whereIn(String what, Collection<?> values, boolean not) {
+        Field field = parseField(what);
+        Set<Object> distinct = new LinkedHashSet<>();
+        for (Object value : values) {
+            distinct.add(prepareForRow(field, value));
+        }
+        Object[] data = distinct.toArray();
+        appendWhereJoint();
+        if (data.length == 0) {
+            where.append(not ? "1 = 1" : "1 = 0");
+            return this;
+        }
+        String column = quote(tables.get(currentTableIndex), field.name);
+        if (data.length > MAX_IN_BUCKET && !not) {
+            if (chunkedIn != null) {
+                throw new ChunkedQueryException();
+            }
+            chunkedIn = new ChunkedIn(data, preparedWhereData.size());
+            appendInList(column, " IN (", chunkedIn.getChunk(0), field.type);
+            return this;
+        }
+        where.append('(');
+        for (int from = 0; from < data.length; from += MAX_IN_BUCKET) {
+            if (from > 0) {
+                where.append(" AND ");
+            }
+            int count = Math.min(MAX_IN_BUCKET, data.length - from);
+            int bucket = MIN_IN_BUCKET;
+            while (bucket < count) {
+                bucket *= 2;
+            }
+            Object[] padded = new Object[bucket];
+            System.arraycopy(data, from, padded, 0, count);
+            Arrays.fill(padded, count, bucket, data[from + count - 1]);
+            appendInList(column, not ? " NOT IN (" : " IN (", padded, field.type);
+        }
         where.append(')');
         return this;
     }
 
+    private void appendInList(String column, String operation, Object[] values, DataType type) {
+        where.append(column).append(operation).append('?');
+        for (int i = 1; i < values.length; i++) {
+            where.append(", ?");
+        }
+        where.append(')');
+        for (Object value : values) {
+            preparedWhereData.add(prepared(value, type));
+        }
+    }
+
     /**
-     * Where statement
-     * @param what what compare
-     * @param operation compare operation (Some of EQUAL, NOT_EQUAL, MORE, MORENEQUAL, LESSNEQUAL, LESS, ISNULL, ISNTNULL, LIKE)
-     * @param value value to compare with
+     * Opens bracket in where
+     * @return this
+     */
+    public IQL openBracket() {
+        openBracketsCnt++;
+        return this;
+    }
+
+    /**
+     * Closing bracket in where
+     * @return this
+     */
+    public IQL closeBracket() {
+        where.append(')');
+        return this;
+    }
+
+    /**
+     * Appends WHERE, AND or OR before next condition, and opened brackets
+     */
+    private void appendWhereJoint() {
+        if (where.length() > 0) {
+            where.append(whereOr ? " OR " : " AND ");
+            whereHasOr |= whereOr;
+        } else {
+            where.append(" WHERE ");
+        }
+        and();
+        for (int i = 0; i < openBracketsCnt; i++) {
+            where.append('(');
+        }
+        openBracketsCnt = 0;
+    }
+
+    /**
+     * Where statement
+     * @param what what compare
+     * @param operation compare operation (Some of EQUAL, NOT_EQUAL, MORE, MORENEQUAL, LESSNEQUAL, LESS, ISNULL, ISNTNULL, LIKE)
+     * @param value value to compare with
      * @return this
      */
     public IQL where(String what, String operation, Object value) {
@@ -712,22 +1075,13 @@ public class IQL {
             data = prepareForRow(field, value);
         }
         String table = tables.get(currentTableIndex);
-        if (where.length() > 0) {
-            where.append(" " + (whereOr ? "OR" : "AND") + " ");
-        } else {
-            where.append(" WHERE ");
-        }
-        and();
-        for (int i = 0; i < openBracketsCnt; i++) {
-            where.append('(');
-        }
-        openBracketsCnt = 0;
+        appendWhereJoint();
 
         if (withoutData) {
-            where.append("`" + table + "`.`" + field.name + "` " + cOperation);
+            where.append(quote(table, field.name)).append(' ').append(cOperation);
         } else {
-            where.append("`" + table + "`.`" + field.name + "` " + cOperation + " ?");
-            preparedWhereData.add(new PreparedData(data, field.type));
+            where.append(quote(table, field.name)).append(' ').append(cOperation).append(" ?");
+            preparedWhereData.add(prepared(data, field.type));
         }
         return this;
     }
@@ -776,7 +1130,7 @@ public class IQL {
      * @return this
      */
     public IQL groupBy(String field, int table) {
-        groups.add(new Group(field, table));
+        groups.add(getGroup(field, table));
         return this;
     }
 
@@ -786,19 +1140,19 @@ public class IQL {
      * @return this
      */
     public IQL groupBy(String field) {
-        groups.add(new Group(field));
+        groups.add(getGroup(field, currentTableIndex + 1));
         return this;
     }
 
     /**
      * Ordering data
-     * @param field field for order
+     * @param field field for order. Type signature (for example "id %i") is optional and used by seekAfter()
      * @param type ordering type (ASC or DESC)
      * @param table table, that contains field
      * @return this
      */
     public IQL orderBy(String field, String type, int table) {
-        orders.add(new Order(field, type, table));
+        orders.add(getOrder(field, type, table));
         return this;
     }
 
@@ -809,7 +1163,7 @@ public class IQL {
      * @return this
      */
     public IQL orderBy(String field, int table) {
-        orders.add(new Order(field, table));
+        orders.add(getOrder(field, ASC, table));
         return this;
     }
 
@@ -820,10 +1174,134 @@ public class IQL {
      * @return
      */
     public IQL orderBy(String field, String type) {
-        orders.add(new Order(field, type));
+        orders.add(getOrder(field, type, currentTableIndex + 1));
         return this;
     }
 
+    /**
+     * Keyset pagination: selects rows after row with given sort keys, in order set by orderBy().
+     * Adds condition "k1 > ? OR (k1 = ? AND k2 > ?) ..." (with "<" for DESC keys) to where, so the next page
+     * is found by index instead of scanning and skipping rows with LIMIT offset. Use with limit(size).
+     * Type of key, which order field has no type signature, is taken from key class: Integer, Long, Short and Byte
+     * are bound as %i, Float and Double as %f, Boolean as %b, Date as %d, String and null as %v
+     * @param lastKeys values of all order fields from last row of previous page
+     * @return this
+     * @throws IllegalArgumentException if key has other class or Long key is out of int range
+     */
+    public IQL seekAfter(Object... lastKeys) {
+        if (lastKeys.length != orders.size() || lastKeys.length == 0) {
+            throw new DataRowsCountMismatchException();
+        }
+        StringBuilder condition = new StringBuilder("(");
+        List<PreparedData> data = new ArrayList<>();
+        for (int i = 0; i < orders.size(); i++) {
+            if (i > 0) {
+                condition.append(" OR (");
+            }
+            for (int j = 0; j <= i; j++) {
+                Order order = orders.get(j);
+                if (lastKeys[j] instanceof Long && (long) lastKeys[j] != (int) (long) lastKeys[j]) {
+                    throw new IllegalArgumentException("seek key " + lastKeys[j] + " is out of int range");
+                }
+                DataType type = order.dataType != null ? order.dataType : inferType(lastKeys[j]);
+                String compare = j < i ? "=" : (order.type.equals(DESC) ? "<" : ">");
+                if (j > 0) {
+                    condition.append(" AND ");
+                }
+                condition.append(quote(tables.get(order.table), order.field) + " " + compare + " ?");
+                data.add(new PreparedData(prepareValue(type, lastKeys[j]), type));
+            }
+            if (i > 0) {
+                condition.append(')');
+            }
+        }
+        condition.append(')');
+        addCondition(condition, data);
+        return this;
+    }
+
+    /**
+     * Keyset pagination with cursor token
+     * @param cursor token, created by SeekCursor.encode() from sort keys of last row of previous page
+     * @return this
+     */
+    public IQL seekAfter(String cursor) {
+        return seekAfter(SeekCursor.decode(cursor));
+    }
+
+    /**
+     * Selects rows of active table with from &lt;= field &lt;= to. Condition is added to where with AND
+     * @param field integer field, for example "id"
+     * @param from lower bound, inclusive
+     * @param to upper bound, inclusive
+     * @return this
+     */
+    public IQL whereRange(String field, int from, int to) {
+        List<PreparedData> data = new ArrayList<>();
+        data.add(new PreparedData(from, DataType.RT_I));
+        data.add(new PreparedData(to, DataType.RT_I));
+        String column = quote(tables.get(currentTableIndex), field);
+        addCondition("(" + column + " >= ? AND " + column + " <= ?)", data);
+        return this;
+    }
+
+    /**
+     * Replaces selected fields with MIN and MAX of field of active table, labeled "min_value" and "max_value".
+     * Where and joins are kept, ordering and limits are removed
+     * @param field integer field
+     * @return this
+     */
+    IQL selectBounds(String field) {
+        String column = quote(tables.get(currentTableIndex), field);
+        opType = Operation.SELECT;
+        selectedFields.clear();
+        orders.clear();
+        groups.clear();
+        limited = false;
+        selectRaw = "MIN(" + column + ") AS " + quote("min_value") + ", MAX(" + column + ") AS " + quote("max_value");
+        return this;
+    }
+
+    /**
+     * @param value value without declared type
+     * @return type for value class
+     * @throws IllegalArgumentException if value class has no type
+     */
+    private static DataType inferType(Object value) {
+        if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            return DataType.RT_I;
+        }
+        if (value instanceof Float || value instanceof Double) {
+            return DataType.RT_F;
+        }
+        if (value instanceof Boolean) {
+            return DataType.RT_B;
+        }
+        if (value instanceof Date) {
+            return DataType.RT_D;
+        }
+        if (value == null || value instanceof String) {
+            return DataType.RT_V;
+        }
+        throw new IllegalArgumentException("seek key of " + value.getClass().getName() + " has no type, declare it in orderBy()");
+    }
+
+    /**
+     * Adds condition to where with AND. Existing conditions are wrapped in brackets, so their OR can not change meaning
+     * @param condition condition with placeholders
+     * @param data values for placeholders
+     */
+    private void addCondition(CharSequence condition, List<PreparedData> data) {
+        if (where.length() == 0) {
+            where.append(" WHERE ");
+        } else {
+            where.replace(0, " WHERE ".length(), " WHERE (");
+            where.append(") AND ");
+        }
+        where.append(condition);
+        preparedWhereData.addAll(data);
+    }
+
     /**
      * Setting limits
      * @param from limit from
@@ -831,7 +1309,9 @@ public class IQL {
      * @return this
      */
     public IQL limit(int from, int to) {
-        limit = " LIMIT " + from + ", " + to;
+        limited = true;
+        limitFrom = from;
+        limitTo = to;
         return this;
     }
 
@@ -894,40 +1374,509 @@ public class IQL {
     }
 
     /**
-     * Getting PreparedStatement for built query
+     * Getting PreparedStatement for built query. For writes cached results of table are dropped
      * @return PreparedStatement with query set
      */
     public PreparedStatement getStatement(int statementConstant) {
         if (con == null) {
             throw new ConnectionNotSetException();
         }
-        compileQuery();
+        CompiledQuery query = build();
         try {
-            PreparedStatement ps = statementConstant == NO_STATEMENT_CONSTANT ? con.prepareStatement(sql.toString()) : con.prepareStatement(sql.toString(), statementConstant);
-
-            int i = 1;
-            for (PreparedData preparedData : this.preparedQueryData) {
-                switch (preparedData.type) {
-                    case RT_S:
-                    case RT_V:
-                    case RT_T:
-                        ps.setString(i++, (String) preparedData.data);
-                        break;
-                    case RT_I:
-                    case RT_D:
-                        ps.setInt(i++, (int) preparedData.data);
-                        break;
-                    case RT_B:
-                        ps.setBoolean(i++, (boolean) preparedData.data);
+            return statementConstant == NO_STATEMENT_CONSTANT ? query.prepare(con) : query.prepare(con, statementConstant);
+        } catch (SQLException e) {
+            return null;
+        }
+    }
+
+    public LeasedStatement leaseStatement() throws SQLException {
+        return leaseStatement(NO_STATEMENT_CONSTANT);
+    }
+
+    /**
+     * Getting statement for built query from statement pool, set by setStatementPool().
+     * Lease must be closed after execution to return statement to pool. For writes cached results of table
+     * are dropped, when statement is leased and again, when lease is closed
+     * @param statementConstant constant for Connection.prepareStatement(String, int)
+     * @return leased statement with query data set
+     * @throws SQLException if statement can not be prepared or data can not be set
+     */
+    public LeasedStatement leaseStatement(int statementConstant) throws SQLException {
+        if (statementPool == null) {
+            throw new ConnectionNotSetException();
+        }
+        CompiledQuery query = build();
+        String sql = query.getSql();
+        LeasedStatement leased = statementConstant == NO_STATEMENT_CONSTANT ? statementPool.lease(sql) : statementPool.lease(sql, statementConstant);
+        Connection leasedConnection;
+        try {
+            query.bindTo(leased.getStatement());
+            leasedConnection = leased.getStatement().getConnection();
+        } catch (SQLException e) {
+            leased.close();
+            throw e;
+        }
+        return leased.setOnRelease(() -> query.invalidateResults(leasedConnection));
+    }
+
+    /**
+     * Builds immutable query, that can be shared between threads, and resets this object
+     * @return compiled query with SQL text and bound values
+     */
+    public CompiledQuery build() {
+        if (chunkedIn != null) {
+            throw new ChunkedQueryException();
+        }
+        return compile();
+    }
+
+    private CompiledQuery compile() {
+        QueryMetrics queryMetrics = metrics;
+        long start = queryMetrics == null ? 0 : System.nanoTime();
+        String sql = compileQuery();
+        if (queryMetrics != null) {
+            queryMetrics.forSql(sql).record(Phase.BUILD, System.nanoTime() - start);
+        }
+        int count = preparedQueryData.size();
+        boolean sameShape = sql == lastSql && lastTypes.length == count;
+        Object[] values = new Object[count];
+        for (int i = 0; i < count; i++) {
+            PreparedData preparedData = preparedQueryData.get(i);
+            if (sameShape && lastTypes[i] != preparedData.type) {
+                sameShape = false;
+            }
+            values[i] = preparedData.data;
+        }
+        // types of previous query are shared by its CompiledQuery, so they are reused only if equal and never written
+        DataType[] types = lastTypes;
+        if (!sameShape) {
+            types = new DataType[count];
+            for (int i = 0; i < count; i++) {
+                types[i] = preparedQueryData.get(i).type;
+            }
+        }
+        QueryMeta meta = sameShape ? lastMeta : getMeta();
+        lastSql = sql;
+        lastTypes = types;
+        lastMeta = meta;
+        RowBuffer rows = isInsertingRows() ? insertableData : null;
+        reset();
+        return new CompiledQuery(meta, sql, rows, types, values);
+    }
+
+    private QueryMeta getMeta() {
+        String[] columnLabels = new String[selectedFields.size()];
+        String[] columnFields = new String[columnLabels.length];
+        DataType[] columnTypes = new DataType[columnLabels.length];
+        int i = 0;
+        for (SelectedField field : selectedFields) {
+            columnLabels[i] = field.alias;
+            columnFields[i] = field.field;
+            columnTypes[i++] = field.type;
+        }
+        return new QueryMeta(opType, tables.toArray(new String[0]), columnLabels, columnFields, columnTypes);
+    }
+
+    /**
+     * Adds update of one row (setUpdateFields(), update() and whereId() without other conditions) to write-behind buffer
+     * instead of executing it. Connection is not used
+     * @param buffer write-behind buffer
+     */
+    public void executeLater(WriteBehindBuffer buffer) {
+        if (opType != Operation.UPDATE || bulkUpdate || updateData == null) {
+            throw new OperationNotSetException();
+        }
+        String table = tables.get(0);
+        if (preparedWhereData.size() != 1 || !(preparedWhereData.get(0).data instanceof Integer)
+                || !where.toString().equals(" WHERE " + quote(table, "id") + " = ?")) {
+            throw new InsecureOperationException();
+        }
+        String[] fields = new String[modifyingFields.length];
+        DataType[] types = new DataType[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = modifyingFields[i].name;
+            types[i] = modifyingFields[i].type;
+        }
+        buffer.add(table, (int) preparedWhereData.get(0).data, fields, types, updateData);
+        reset();
+    }
+
+    /**
+     * Checks, that query with chunked IN list can be executed by chunks: results of chunks must not overlap
+     * and must not depend on rows of other chunks
+     */
+    private void checkChunkable() {
+        if (whereHasOr) {
+            throw new ChunkedQueryException("IN list of more than " + MAX_IN_BUCKET + " values can not be combined with OR");
+        }
+        if (!orders.isEmpty() || !groups.isEmpty() || limited || selectRaw != null) {
+            throw new ChunkedQueryException("IN list of more than " + MAX_IN_BUCKET
+                    + " values can not be combined with order, group, limit or raw select");
+        }
+    }
+
+    /**
+     * Executes built insert, update, delete or create query
+     * @return update count
+     * @throws SQLException if query failed
+     */
+    public int execute() throws SQLException {
+        if (con == null) {
+            throw new ConnectionNotSetException();
+        }
+        if (chunkedIn == null) {
+            return build().execute(con);
+        }
+        checkChunkable();
+        ChunkedIn in = chunkedIn;
+        CompiledQuery query = compile();
+        int count = 0;
+        for (int from = 0; from < in.values.length; from += MAX_IN_BUCKET) {
+            count += query.withValues(chunkedInParameter, in.getChunk(from)).execute(con);
+        }
+        return count;
+    }
+
+    /**
+     * Executes built select and maps every row of result to object of type.
+     * Columns are mapped by alias or field name to setters or fields of POJO, or to components of record.
+     * With result cache, set by setResultCache(), returned objects may be shared with other callers and must not be modified
+     * @param type class of result objects
+     * @return list of mapped objects
+     * @throws SQLException if query failed
+     */
+    public <T> List<T> query(Class<T> type) throws SQLException {
+        if (con == null) {
+            throw new ConnectionNotSetException();
+        }
+        if (chunkedIn == null) {
+            return build().query(con, type);
+        }
+        checkChunkable();
+        ChunkedIn in = chunkedIn;
+        CompiledQuery query = compile();
+        List<T> ret = new ArrayList<>();
+        for (int from = 0; from < in.values.length; from += MAX_IN_BUCKET) {
+            ret.addAll(query.withValues(chunkedInParameter, in.getChunk(from)).query(con, type));
+        }
+        return ret;
+    }
+
+    /**
+     * Executes built select and maps rows of result to objects of type, while iterating.
+     * Iterator must be closed to release statement and result set
+     * @param type class of result objects
+     * @return iterator over mapped objects
+     * @throws SQLException if query failed
+     */
+    public <T> ResultIterator<T> iterate(Class<T> type) throws SQLException {
+        if (con == null) {
+            throw new ConnectionNotSetException();
+        }
+        return build().iterate(con, type);
+    }
+
+    public int[] executeInsertBatch(int rowsPerStatement) throws SQLException {
+        return executeInsertBatch(rowsPerStatement, 0);
+    }
+
+    /**
+     * Executes insert of rows, added with insert() or upsert() without where, in chunks of rowsPerStatement rows.
+     * Full chunks are executed as JDBC batches of one statement, every batch has at most 16 chunks
+     * or commitEveryChunks chunks, if it is set, so driver does not hold all rows bound at once.
+     * The rest of rows is executed by separate statement
+     * @param rowsPerStatement max number of rows in one INSERT statement
+     * @param commitEveryChunks if greater than zero, batch is executed and committed after every commitEveryChunks chunks.
+     *                          Connection must not be in auto-commit mode
+     * @return update counts for every chunk
+     * @throws SQLException if insert failed
+     */
+    public int[] executeInsertBatch(int rowsPerStatement, int commitEveryChunks) throws SQLException {
+        if (con == null) {
+            throw new ConnectionNotSetException();
+        }
+        if (!isInsertingRows()) {
+            throw new OperationNotSetException();
+        }
+        if (rowsPerStatement < 1) {
+            throw new IllegalArgumentException("rowsPerStatement must be positive");
+        }
+        boolean commit = commitEveryChunks > 0;
+        if (commit && con.getAutoCommit()) {
+            throw new IllegalStateException("commitEveryChunks requires connection in manual commit mode");
+        }
+        int chunksPerBatch = commit ? commitEveryChunks : CHUNKS_PER_BATCH;
+        String table = tables.get(0);
+        try {
+            int rows = insertableData.size();
+            int fullChunks = rows / rowsPerStatement;
+            int rest = rows % rowsPerStatement;
+            int[] counts = new int[fullChunks + (rest > 0 ? 1 : 0)];
+            int chunk = 0;
+            if (fullChunks > 0) {
+                try (PreparedStatement ps = con.prepareStatement(getCompiledSql(rowsPerStatement))) {
+                    int pending = 0;
+                    for (int i = 0; i < fullChunks; i++) {
+                        insertableData.bind(ps, i * rowsPerStatement, rowsPerStatement, 1);
+                        ps.addBatch();
+                        pending++;
+                        if (pending == chunksPerBatch || i == fullChunks - 1) {
+                            int[] batchCounts = ps.executeBatch();
+                            System.arraycopy(batchCounts, 0, counts, chunk, batchCounts.length);
+                            chunk += batchCounts.length;
+                            pending = 0;
+                            if (commit) {
+                                con.commit();
+                            }
+                        }
+                    }
+                }
+            }
+            if (rest > 0) {
+                try (PreparedStatement ps = con.prepareStatement(getCompiledSql(rest))) {
+                    insertableData.bind(ps, fullChunks * rowsPerStatement, rest, 1);
+                    counts[chunk] = ps.executeUpdate();
+                    if (commit) {
+                        con.commit();
+                    }
+                }
+            }
+            reset();
+            return counts;
+        } finally {
+            invalidateResults(con, table);
+        }
+
+    }
+
+    private static class InsertBlock {
+        final RowBuffer rows;
+        final Throwable error;
+
+        InsertBlock(RowBuffer rows, Throwable error) {
+            this.rows = rows;
+            this.error = error;
+        }
+    }
+
+    private static final InsertBlock LAST_BLOCK = new InsertBlock(null, null);
+
+    /**
+     * Executes bulk update of rows, added with updateRow(), in chunks of rowsPerStatement rows.
+     * Chunks are reduced, if statement would have more than 65535 placeholders (MySQL limit)
+     * @param rowsPerStatement max number of rows in one UPDATE statement
+     * @return update counts for every chunk
+     * @throws SQLException if update failed
+     */
+    public int[] executeUpdateBatch(int rowsPerStatement) throws SQLException {
+        if (con == null) {
+            throw new ConnectionNotSetException();
+        }
+        if (!bulkUpdate) {
+            throw new OperationNotSetException();
+        }
+        if (rowsPerStatement < 1) {
+            throw new IllegalArgumentException("rowsPerStatement must be positive");
+        }
+        String table = tables.get(0);
+        try {
+            int parametersPerRow = modifyingFields.length * 2 - 1;
+            rowsPerStatement = Math.max(1, Math.min(rowsPerStatement, (MAX_PARAMETERS - preparedWhereData.size()) / parametersPerRow));
+            int rows = insertableData.size();
+            int[] counts = new int[(rows + rowsPerStatement - 1) / rowsPerStatement];
+            List<PreparedData> data = new ArrayList<>();
+            for (int chunk = 0; chunk < counts.length; chunk++) {
+                int from = chunk * rowsPerStatement;
+                int count = Math.min(rowsPerStatement, rows - from);
+                data.clear();
+                collectBulkUpdateData(data, from, count);
+                data.addAll(preparedWhereData);
+                try (PreparedStatement ps = con.prepareStatement(getCompiledSql(count))) {
+                    int index = 1;
+                    for (PreparedData value : data) {
+                        CompiledQuery.setValue(ps, index++, value.type, value.data);
+                    }
+                    counts[chunk] = ps.executeUpdate();
+                }
+            }
+            reset();
+            return counts;
+        } finally {
+            invalidateResults(con, table);
+        }
+
+    }
+
+    /**
+     * Loads rows, added with insert(), with native loader of dialect (LOAD DATA LOCAL INFILE, COPY FROM STDIN, CSVREAD).
+     * Rows are streamed in CSV form, encoded directly from insert buffer, without binding of parameters.
+     * If dialect has no loader, rows are inserted by executeInsertBatch() in chunks of 1000 rows
+     * @return number of loaded rows
+     * @throws SQLException if load failed
+     */
+    public long executeBulkLoad() throws SQLException {
+        if (con == null) {
+            throw new ConnectionNotSetException();
+        }
+        if (opType != Operation.INSERT) {
+            throw new OperationNotSetException();
+        }
+        BulkLoader loader = dialect.getBulkLoader();
+        if (loader == null) {
+            long count = 0;
+            for (int chunkCount : executeInsertBatch(1000)) {
+                count += chunkCount;
+            }
+            return count;
+        }
+        String table = tables.get(0);
+        try {
+            List<String> columns = new ArrayList<>(modifyingFields.length);
+            for (Field field : modifyingFields) {
+                columns.add(quote(field.name));
+            }
+            long count = loader.load(con, quote(tables.get(0)), columns, new CsvRowStream(insertableData, loader.getNullToken()));
+            reset();
+            return count;
+        } finally {
+            invalidateResults(con, table);
+        }
+
+    }
+
+    public long insertAll(Stream<Object[]> rows) throws SQLException {
+        return insertAll(rows.iterator());
+    }
+
+    public long insertAll(Stream<Object[]> rows, int rowsPerStatement, int queueBlocks) throws SQLException {
+        return insertAll(rows.iterator(), rowsPerStatement, queueBlocks);
+    }
+
+    public long insertAll(Iterator<Object[]> rows) throws SQLException {
+        return insertAll(rows, 1000, 4);
+    }
+
+    /**
+     * Streams rows to fields, declared with setInsertFields() or setUpsertFields(), without collecting them in memory.
+     * Rows are converted to field types by separate thread in blocks of rowsPerStatement rows, while previous
+     * blocks are inserted by calling thread. Not more than queueBlocks converted blocks are waiting for insert.
+     * Rows, added with insert() and not executed yet, are not dropped: IllegalStateException is thrown instead
+     * @param rows rows to insert
+     * @param rowsPerStatement max number of rows in one INSERT statement
+     * @param queueBlocks max number of converted blocks, waiting for insert
+     * @return number of inserted rows, reported by driver
+     * @throws SQLException if insert failed
+     */
+    public long insertAll(Iterator<Object[]> rows, int rowsPerStatement, int queueBlocks) throws SQLException {
+        if (con == null) {
+            throw new ConnectionNotSetException();
+        }
+        if (!isInsertingRows()) {
+            throw new OperationNotSetException();
+        }
+        if (rowsPerStatement < 1 || queueBlocks < 1) {
+            throw new IllegalArgumentException("rowsPerStatement and queueBlocks must be positive");
+        }
+        if (insertableData.size() > 0) {
+            throw new IllegalStateException("rows, added with insert(), must be executed before insertAll()");
+        }
+        String table = tables.get(0);
+        try {
+            BlockingQueue<InsertBlock> queue = new ArrayBlockingQueue<>(queueBlocks);
+            Thread converter = new Thread(() -> convertBlocks(rows, rowsPerStatement, queue), "iql-insert-converter");
+            converter.setDaemon(true);
+            converter.start();
+            long inserted = 0;
+            PreparedStatement fullBlockStatement = null;
+            try {
+                while (true) {
+                    InsertBlock block = queue.take();
+                    if (block.error instanceof Error) {
+                        throw (Error) block.error;
+                    }
+                    if (block.error != null) {
+                        throw (RuntimeException) block.error;
+                    }
+                    if (block == LAST_BLOCK) {
                         break;
-                    case RT_F:
-                        ps.setFloat(i++, (float) preparedData.data);
+                    }
+                    int size = block.rows.size();
+                    if (size == rowsPerStatement) {
+                        if (fullBlockStatement == null) {
+                            fullBlockStatement = con.prepareStatement(getCompiledSql(rowsPerStatement));
+                        }
+                        block.rows.bind(fullBlockStatement, 0, size, 1);
+                        inserted += fullBlockStatement.executeUpdate();
+                    } else {
+                        try (PreparedStatement ps = con.prepareStatement(getCompiledSql(size))) {
+                            block.rows.bind(ps, 0, size, 1);
+                            inserted += ps.executeUpdate();
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for rows", e);
+            } finally {
+                converter.interrupt();
+                joinUninterruptibly(converter);
+                if (fullBlockStatement != null) {
+                    fullBlockStatement.close();
                 }
             }
             reset();
-            return ps;
-        } catch (SQLException e) {
-            return null;
+            return inserted;
+        } finally {
+            invalidateResults(con, table);
+        }
+
+    }
+
+    /**
+     * Waits for end of thread, keeping interrupted status of current thread
+     */
+    private static void joinUninterruptibly(Thread thread) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                thread.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Converts rows to field types and puts them to queue in blocks. Runs in converter thread,
+     * which stops at interruption and is joined by insertAll()
+     */
+    private void convertBlocks(Iterator<Object[]> rows, int rowsPerStatement, BlockingQueue<InsertBlock> queue) {
+        try {
+            try {
+                DataType[] types = getModifyingTypes();
+                RowBuffer block = new RowBuffer(types, rowsPerStatement);
+                while (!Thread.currentThread().isInterrupted() && rows.hasNext()) {
+                    addRow(block, rows.next());
+                    if (block.size() == rowsPerStatement) {
+                        queue.put(new InsertBlock(block, null));
+                        block = new RowBuffer(types, rowsPerStatement);
+                    }
+                }
+                if (block.size() > 0) {
+                    queue.put(new InsertBlock(block, null));
+                }
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                queue.put(LAST_BLOCK);
+            } catch (RuntimeException | Error e) {
+                queue.put(new InsertBlock(null, e));
+            }
+        } catch (InterruptedException ignored) {
         }
     }
 
@@ -936,39 +1885,174 @@ public class IQL {
      * @return String with buil query
      */
     public String getSQL() {
-        compileQuery();
-        QueryFilter qf = new QueryFilter(sql.toString());
-        for (PreparedData preparedData : preparedQueryData) {
-            switch (preparedData.type) {
-                case RT_S:
-                case RT_V:
-                case RT_T:
-                    qf.setString((String) preparedData.data);
-                    break;
-                case RT_I:
-                case RT_D:
-                    qf.setInt((int) preparedData.data);
-                    break;
-                case RT_B:
-                    qf.setBoolean((boolean) preparedData.data);
-                    break;
-                case RT_F:
-                    qf.setFloat((float) preparedData.data);
+        return build().render();
+    }
+
+    private String compileQuery() {
+        if (opType == Operation.NOT_SET) {
+            throw new OperationNotSetException();
+        }
+        if ((opType == Operation.UPDATE || opType == Operation.DELETE) && where.length() == 0 && !bulkUpdate) {
+            throw new InsecureOperationException();
+        }
+        if (bulkUpdate && insertableData.size() == 0) {
+            throw new InsecureOperationException();
+        }
+        preparedQueryData.clear();
+        collectQueryData();
+        return getCompiledSql(isInsertingRows() || bulkUpdate ? insertableData.size() : 0);
+    }
+
+    /**
+     * @return true, if query inserts rows from insertableData
+     */
+    private boolean isInsertingRows() {
+        return opType == Operation.INSERT || (opType == Operation.UPSERT && where.length() == 0);
+    }
+
+    /**
+     * @param rows number of rows in VALUES of insert
+     * @return SQL text from cache or compiled
+     */
+    private String getCompiledSql(int rows) {
+        SqlCache cache = sqlCache;
+        if (cache == null) {
+            return compileSql(rows);
+        }
+        ShapeKey shape = getShape(rows);
+        String compiled = cache.get(shape);
+        if (compiled == null) {
+            compiled = compileSql(rows);
+            cache.put(shape.copy(), compiled);
+        }
+        return compiled;
+    }
+
+    /**
+     * Fills reusable shape key of builder. Collections are iterated by index, so no iterators are allocated
+     */
+    private ShapeKey getShape(int rows) {
+        if (shape.getCapacity() > MAX_RETAINED_CHARS) {
+            shape = new ShapeKey(256);
+        }
+        shape.clear(dialect);
+        shape.add(opType.ordinal());
+        shape.add(tables.size());
+        for (int i = 0; i < tables.size(); i++) {
+            shape.add(tables.get(i));
+        }
+        switch (opType) {
+            case INSERT:
+            case UPDATE:
+            case UPSERT:
+                for (Field field : modifyingFields) {
+                    shape.add(field.name).add(field.type.ordinal());
+                }
+                shape.add(rows);
+                shape.add(upsertKeys == null ? -1 : upsertKeys.length);
+                if (upsertKeys != null) {
+                    for (String key : upsertKeys) {
+                        shape.add(key);
+                    }
+                }
+                shape.add(bulkUpdate ? 1 : 0);
+                break;
+            case CREATE:
+                for (int i = 0; i < createFields.size(); i++) {
+                    shape.add(createFields.get(i).name).add(createFields.get(i).type.ordinal());
+                }
+                shape.add(codepage);
+                break;
+            case SELECT:
+                shape.add(excludedTables.size());
+                for (int i = 0; i < excludedTables.size(); i++) {
+                    shape.add(excludedTables.get(i));
+                }
+                shape.add(selectRaw);
+                shape.add(selectedFields.size());
+                for (int i = 0; i < selectedFields.size(); i++) {
+                    SelectedField field = selectedFields.get(i);
+                    shape.add(field.table).add(field.field).add(field.alias);
+                }
+                shape.add(joins.size());
+                for (int i = 0; i < joins.size(); i++) {
+                    Join join = joins.get(i);
+                    shape.add(join.table1).add(join.field1).add(join.table2).add(join.field2).add(join.side).add(join.type);
+                }
+                break;
+        }
+        shape.add(where);
+        shape.add(groups.size());
+        for (int i = 0; i < groups.size(); i++) {
+            shape.add(groups.get(i).table).add(groups.get(i).field);
+        }
+        shape.add(orders.size());
+        for (int i = 0; i < orders.size(); i++) {
+            Order order = orders.get(i);
+            shape.add(order.table).add(order.field).add(order.type);
+        }
+        shape.add(limited ? 1 : 0);
+        return shape;
+    }
+
+    /**
+     * Collects values to bind in order of placeholders in compiled SQL, that follow inserted rows
+     */
+    private void collectQueryData() {
+        if (bulkUpdate) {
+            collectBulkUpdateData(preparedQueryData, 0, insertableData.size());
+        } else if (opType == Operation.UPDATE || (opType == Operation.UPSERT && !isInsertingRows())) {
+            collectUpdateData();
+        }
+        chunkedInParameter = preparedQueryData.size() + (chunkedIn == null ? 0 : chunkedIn.whereIndex);
+        preparedQueryData.addAll(preparedWhereData);
+        if (limited) {
+            boolean offsetFirst = dialect.isOffsetFirst();
+            preparedQueryData.add(prepared(offsetFirst ? limitFrom : limitTo, DataType.RT_I));
+            preparedQueryData.add(prepared(offsetFirst ? limitTo : limitFrom, DataType.RT_I));
+        }
+    }
+
+    /**
+     * Collects values of bulk update in order of placeholders: key and value for every CASE branch, then keys for IN
+     * @param data list to add values
+     * @param from first row
+     * @param count number of rows
+     */
+    private void collectBulkUpdateData(List<PreparedData> data, int from, int count) {
+        DataType keyType = modifyingFields[0].type;
+        for (int field = 1; field < modifyingFields.length; field++) {
+            for (int row = from; row < from + count; row++) {
+                data.add(new PreparedData(insertableData.get(row, 0), keyType));
+                data.add(new PreparedData(insertableData.get(row, field), modifyingFields[field].type));
             }
         }
-        reset();
-        return qf.toString();
+        for (int row = from; row < from + count; row++) {
+            data.add(new PreparedData(insertableData.get(row, 0), keyType));
+        }
     }
 
-    private void compileQuery() {
-        preparedQueryData = new ArrayList<>();
-        sql = new StringBuilder();
+    private void collectUpdateData() {
+        for (int i = 0; i < modifyingFields.length; i++) {
+            preparedQueryData.add(prepared(updateData[i], modifyingFields[i].type));
+        }
+    }
+
+    private String compileSql(int rows) {
+        sql.setLength(0);
+        if (sql.capacity() > MAX_RETAINED_CHARS) {
+            sql = new StringBuilder();
+        }
         switch (opType) {
             case INSERT:
-                compileInsert();
+                compileInsert(rows);
                 break;
             case UPDATE:
-                compileUpdate();
+                if (bulkUpdate) {
+                    compileBulkUpdate(rows);
+                } else {
+                    compileUpdate();
+                }
                 break;
             case DELETE:
                 compileDelete();
@@ -980,20 +2064,17 @@ public class IQL {
                 compileSelect();
                 break;
             case UPSERT:
-                compileUpsert();
+                compileUpsert(rows);
                 break;
-            default:
-                throw new OperationNotSetException();
         }
-        if ((opType == Operation.UPDATE || opType == Operation.DELETE) && where.length() == 0) {
-            throw new InsecureOperationException();
+        if (!bulkUpdate) {
+            sql.append(where);
         }
-        sql.append(where);
 
         if (groups.size() > 0) {
             sql.append(" GROUP BY");
             for (Group group : groups) {
-                sql.append(" " + group + ",");
+                sql.append(' ').append(quote(tables.get(group.table), group.field)).append(',');
             }
             sql.deleteCharAt(sql.length() - 1);
         }
@@ -1001,28 +2082,29 @@ public class IQL {
         if (orders.size() > 0) {
             sql.append(" ORDER BY");
             for (Order order : orders) {
-                sql.append(" " + order + ",");
+                sql.append(' ').append(quote(tables.get(order.table), order.field)).append(order.type.equals(DESC) ? " DESC," : " ASC,");
             }
             sql.deleteCharAt(sql.length() - 1);
         }
-        if (limit != null) {
-            sql.append(limit);
+        if (limited) {
+            sql.append(dialect.getLimitClause());
         }
-        preparedQueryData.addAll(preparedWhereData);
+        return sql.toString();
     }
 
-    private void compileInsert() {
-        sql.append("INSERT INTO `" + tables.get(0) + "`(`" + modifyingFields[0].name + "`");
+    /**
+     * @param rows number of rows in VALUES
+     */
+    private void compileInsert(int rows) {
+        sql.append("INSERT INTO ").append(quote(tables.get(0))).append('(').append(quote(modifyingFields[0].name));
         for (int i = 1; i < modifyingFields.length; i++) {
-            sql.append(", `" + modifyingFields[i].name + "`");
+            sql.append(", ").append(quote(modifyingFields[i].name));
         }
         sql.append(") VALUES");
-        for (Object[] line : insertableData) {
+        for (int row = 0; row < rows; row++) {
             sql.append(" (?");
-            preparedQueryData.add(new PreparedData(line[0], modifyingFields[0].type));
-            for (int i = 1; i < line.length; i++) {
+            for (int i = 1; i < modifyingFields.length; i++) {
                 sql.append(", ?");
-                preparedQueryData.add(new PreparedData(line[i], modifyingFields[i].type));
             }
             sql.append("),");
         }
@@ -1030,83 +2112,100 @@ public class IQL {
     }
 
     private void compileUpdate() {
-        sql.append("UPDATE `" + tables.get(0) + "` SET");
-        int i = 0;
+        sql.append("UPDATE ").append(quote(tables.get(0))).append(" SET");
         for (Field cField : modifyingFields) {
-            sql.append(" `" + cField.name + "` = ?,");
-            preparedQueryData.add(new PreparedData(updateData[i++], cField.type));
+            sql.append(' ').append(quote(cField.name)).append(" = ?,");
+        }
+        sql.deleteCharAt(sql.length() - 1);
+    }
+
+    private void compileBulkUpdate(int rows) {
+        String key = quote(modifyingFields[0].name);
+        sql.append("UPDATE ").append(quote(tables.get(0))).append(" SET");
+        for (int i = 1; i < modifyingFields.length; i++) {
+            sql.append(' ').append(quote(modifyingFields[i].name)).append(" = CASE ").append(key);
+            for (int row = 0; row < rows; row++) {
+                sql.append(" WHEN ? THEN ?");
+            }
+            sql.append(" END,");
         }
         sql.deleteCharAt(sql.length() - 1);
+        sql.append(" WHERE ").append(key).append(" IN (?");
+        for (int row = 1; row < rows; row++) {
+            sql.append(", ?");
+        }
+        sql.append(')');
+        if (where.length() > 0) {
+            sql.append(" AND (").append(where, " WHERE ".length(), where.length()).append(')');
+        }
     }
 
-    private void compileUpsert() {
+    private void compileUpsert(int rows) {
         if (where.length() == 0) {
-            compileInsert();
+            compileInsert(rows);
+            if (upsertKeys != null) {
+                compileOnDuplicateKey();
+            }
         } else {
             compileUpdate();
         }
     }
 
-    private void compileDelete() {
-        sql.append("DELETE FROM `" + tables.get(0) + "`");
+    private void compileOnDuplicateKey() {
+        List<String> keys = Arrays.asList(upsertKeys);
+        List<String> quotedKeys = new ArrayList<>();
+        for (String key : upsertKeys) {
+            quotedKeys.add(quote(key));
+        }
+        List<String> updated = new ArrayList<>();
+        for (Field cField : modifyingFields) {
+            if (!keys.contains(cField.name)) {
+                updated.add(quote(cField.name));
+            }
+        }
+        dialect.appendUpsert(sql, quotedKeys, updated);
     }
 
-    private String getRowCreateCmd(Field field) {
-        StringBuilder ret = new StringBuilder("`" + field.name + "` ");
-        switch (field.type) {
-            case RT_B:
-                ret.append("BOOL");
-                break;
-            case RT_D:
-            case RT_I:
-                ret.append("INTEGER");
-                break;
-            case RT_V:
-            case RT_S:
-                ret.append("VARCHAR(255)");
-                break;
-            case RT_T:
-                ret.append("TEXT");
-                break;
-            case RT_F:
-                ret.append("FLOAT");
-                break;
-        }
-        return ret.toString();
+    private void compileDelete() {
+        sql.append("DELETE FROM ").append(quote(tables.get(0)));
     }
 
     private void compileCreate() {
-        sql.append("CREATE TABLE IF NOT EXISTS `" + tables.get(0) + "`(`id` INTEGER PRIMARY KEY AUTO_INCREMENT,");
-        for (Field cField : createFields) {
-            sql.append(" " + getRowCreateCmd(cField) + ",");
+        sql.append("CREATE TABLE IF NOT EXISTS ").append(quote(tables.get(0))).append('(')
+                .append(dialect.getPrimaryKey(quote("id"))).append(',');
+        for (int i = 0; i < createFields.size(); i++) {
+            Field cField = createFields.get(i);
+            sql.append(' ').append(quote(cField.name)).append(' ').append(dialect.getColumnType(cField.type.getSignature())).append(',');
         }
         sql.deleteCharAt(sql.length() - 1);
-        sql.append(") DEFAULT CHARSET=" + codepage);
+        sql.append(')').append(dialect.getTableOptions(codepage));
     }
 
     private void compileSelect() {
         sql.append("SELECT");
         if (selectedFields.size() > 0) {
-            for (SelectedField field : selectedFields) {
-                sql.append(" `" + field.table + "`.`" + field.field + "` AS `" + field.alias + "`,");
+            for (int i = 0; i < selectedFields.size(); i++) {
+                SelectedField field = selectedFields.get(i);
+                sql.append(' ').append(quote(field.table, field.field)).append(" AS ").append(quote(field.alias)).append(',');
             }
             sql.deleteCharAt(sql.length() - 1);
         } else {
             if (selectRaw != null) {
-                sql.append(" " + selectRaw);
+                sql.append(' ').append(selectRaw);
             } else {
                 sql.append(" *");
             }
         }
         sql.append(" FROM");
-        for (String table : tables) {
+        for (int i = 0; i < tables.size(); i++) {
+            String table = tables.get(i);
             if (!excludedTables.contains(table)) {
-                sql.append(" `" + table + "`,");
+                sql.append(' ').append(quote(table)).append(',');
             }
         }
         sql.deleteCharAt(sql.length() - 1);
-        for (Join join : joins) {
-            sql.append(join.getCommand());
+        for (int i = 0; i < joins.size(); i++) {
+            joins.get(i).appendCommand(sql);
         }
     }
 }
\ No newline at end of file
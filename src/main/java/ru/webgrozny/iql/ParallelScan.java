@@ -0,0 +1,204 @@
+package ru.webgrozny.iql;
+
+import ru.webgrozny.iql.async.AsyncExecutor;
+import ru.webgrozny.iql.exceptions.QueryExecutionException;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+/**
+ * Scans table in parallel. Range of primary key (id, created by createTable) of rows, matching query,
+ * is split into partitions, and every partition is selected on its own connection from data source.
+ * Query is given as supplier of IQL objects with the same select, because IQL is not thread safe:
+ * supplier is called once per partition in calling thread, and range condition is added to where of returned object.
+ * Queries with limit must not be scanned in parallel, because limit is applied to every partition
+ */
+public class ParallelScan implements AutoCloseable {
+    private final DataSource dataSource;
+    private final ExecutorService executor;
+    private final boolean ownExecutor;
+    private String keyField = "id";
+
+    /**
+     * @param dataSource source of connections
+     */
+    public ParallelScan(DataSource dataSource) {
+        this(dataSource, AsyncExecutor.createDefaultExecutor(), true);
+    }
+
+    /**
+     * @param dataSource source of connections
+     * @param executor executor to run partitions. Is not shut down by close()
+     */
+    public ParallelScan(DataSource dataSource, ExecutorService executor) {
+        this(dataSource, executor, false);
+    }
+
+    private ParallelScan(DataSource dataSource, ExecutorService executor, boolean ownExecutor) {
+        this.dataSource = dataSource;
+        this.executor = executor;
+        this.ownExecutor = ownExecutor;
+    }
+
+    /**
+     * @param keyField integer field of active table, used to split it into ranges. Default is "id"
+     * @return this
+     */
+    public ParallelScan setKeyField(String keyField) {
+        this.keyField = keyField;
+        return this;
+    }
+
+    /**
+     * Selects all rows without global order. Partitions are concatenated in order of key ranges,
+     * so if query is ordered by key only, result is ordered by key too
+     * @param query supplier of select queries
+     * @param type class of result objects
+     * @param partitions max number of partitions
+     * @return mapped rows of all partitions
+     * @throws SQLException if any partition failed
+     */
+    public <T> List<T> scan(Supplier<IQL> query, Class<T> type, int partitions) throws SQLException {
+        List<List<T>> parts = scanPartitions(query, type, partitions);
+        int size = 0;
+        for (List<T> part : parts) {
+            size += part.size();
+        }
+        List<T> ret = new ArrayList<>(size);
+        for (List<T> part : parts) {
+            ret.addAll(part);
+        }
+        return ret;
+    }
+
+    /**
+     * Selects all rows in global order with k-way merge of partitions.
+     * Query must be ordered by orderBy() in the same order, as comparator defines
+     * @param query supplier of ordered select queries
+     * @param type class of result objects
+     * @param partitions max number of partitions
+     * @param comparator order of result objects
+     * @return mapped rows of all partitions, ordered by comparator
+     * @throws SQLException if any partition failed
+     */
+    public <T> List<T> scanOrdered(Supplier<IQL> query, Class<T> type, int partitions, Comparator<? super T> comparator) throws SQLException {
+        List<List<T>> parts = scanPartitions(query, type, partitions);
+        int size = 0;
+        PriorityQueue<PartCursor<T>> heads = new PriorityQueue<>(Math.max(parts.size(), 1), (a, b) -> comparator.compare(a.head(), b.head()));
+        for (List<T> part : parts) {
+            size += part.size();
+            if (!part.isEmpty()) {
+                heads.add(new PartCursor<>(part));
+            }
+        }
+        List<T> ret = new ArrayList<>(size);
+        while (!heads.isEmpty()) {
+            PartCursor<T> cursor = heads.poll();
+            ret.add(cursor.head());
+            if (++cursor.position < cursor.rows.size()) {
+                heads.add(cursor);
+            }
+        }
+        return ret;
+    }
+
+    private static class PartCursor<T> {
+        final List<T> rows;
+        int position;
+
+        PartCursor(List<T> rows) {
+            this.rows = rows;
+        }
+
+        T head() {
+            return rows.get(position);
+        }
+    }
+
+    private <T> List<List<T>> scanPartitions(Supplier<IQL> query, Class<T> type, int partitions) throws SQLException {
+        if (partitions < 1) {
+            throw new IllegalArgumentException("partitions must be positive");
+        }
+        long[] bounds = getBounds(query.get().selectBounds(keyField).build());
+        if (bounds == null) {
+            return Collections.emptyList();
+        }
+        long span = bounds[1] - bounds[0] + 1;
+        int count = (int) Math.min(partitions, span);
+        List<Future<List<T>>> futures = new ArrayList<>(count);
+        try {
+            for (int i = 0; i < count; i++) {
+                int from = (int) (bounds[0] + span * i / count);
+                int to = (int) (bounds[0] + span * (i + 1) / count - 1);
+                CompiledQuery part = query.get().whereRange(keyField, from, to).build();
+                futures.add(executor.submit(() -> {
+                    try (Connection con = dataSource.getConnection()) {
+                        return part.query(con, type);
+                    }
+                }));
+            }
+            List<List<T>> ret = new ArrayList<>(count);
+            for (Future<List<T>> future : futures) {
+                ret.add(future.get());
+            }
+            return ret;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new QueryExecutionException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new QueryExecutionException(e);
+        } finally {
+            for (Future<List<T>> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * @param query select of min and max key
+     * @return min and max key, or null if no rows match
+     */
+    private long[] getBounds(CompiledQuery query) throws SQLException {
+        try (Connection con = dataSource.getConnection();
+             PreparedStatement ps = query.prepare(con);
+             ResultSet rs = ps.executeQuery()) {
+            if (!rs.next()) {
+                return null;
+            }
+            long min = rs.getLong(1);
+            if (rs.wasNull()) {
+                return null;
+            }
+            return new long[]{min, rs.getLong(2)};
+        }
+    }
+
+    /**
+     * Shuts down default executor. Running partitions are completed
+     */
+    @Override
+    public void close() {
+        if (ownExecutor) {
+            executor.shutdown();
+        }
+    }
+}
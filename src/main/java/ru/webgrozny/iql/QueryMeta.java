@@ -0,0 +1,68 @@
+package ru.webgrozny.iql;
+
+/**
+ * Immutable description of compiled query: operation, tables and selected columns with declared types
+ */
+final class QueryMeta {
+    private final Operation operation;
+    private final String[] tables;
+    private final String[] columnLabels;
+    private final String[] columnFields;
+    private final DataType[] columnTypes;
+
+    /**
+     * @param tables tables of query, the first one is modified by insert, update, delete and create
+     * @param columnLabels aliases of selected fields
+     * @param columnFields names of selected fields
+     * @param columnTypes types of selected fields, null for fields without type signature
+     */
+    QueryMeta(Operation operation, String[] tables, String[] columnLabels, String[] columnFields, DataType[] columnTypes) {
+        this.operation = operation;
+        this.tables = tables;
+        this.columnLabels = columnLabels;
+        this.columnFields = columnFields;
+        this.columnTypes = columnTypes;
+    }
+
+    Operation getOperation() {
+        return operation;
+    }
+
+    String[] getTables() {
+        return tables;
+    }
+
+    /**
+     * @return number of selected fields with declared names, 0 for raw select or select of all fields
+     */
+    int getColumnCount() {
+        return columnLabels.length;
+    }
+
+    /**
+     * @param label column label from result set
+     * @return declared type of selected field or null
+     */
+    DataType getColumnType(String label) {
+        int i = indexOf(label);
+        return i == -1 ? null : columnTypes[i];
+    }
+
+    /**
+     * @param label column label from result set
+     * @return name of selected field or null
+     */
+    String getColumnField(String label) {
+        int i = indexOf(label);
+        return i == -1 ? null : columnFields[i];
+    }
+
+    private int indexOf(String label) {
+        for (int i = 0; i < columnLabels.length; i++) {
+            if (columnLabels[i].equalsIgnoreCase(label)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
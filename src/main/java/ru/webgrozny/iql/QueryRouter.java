@@ -0,0 +1,352 @@
+package ru.webgrozny.iql;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Routes queries by operation: selects are executed on replicas, all other queries on primary.
+ * Every query takes its own connection from data source. After a write, selects of the same thread
+ * are executed on primary during pin window, so the thread reads its own writes. Inside transaction,
+ * started by begin(), all queries of the thread are executed on one connection to primary.
+ * Replica, which connection failed (SQL state class 08), is not used during retry interval, selects go to other replicas or to primary
+ */
+public class QueryRouter implements AutoCloseable {
+    /**
+     * Replicas are taken in turn
+     */
+    public static final int ROUND_ROBIN = 0;
+    /**
+     * Replica with the least number of running queries is taken
+     */
+    public static final int LEAST_OUTSTANDING = 1;
+
+    private final DataSource primary;
+    private final Replica[] replicas;
+    private final AtomicInteger next = new AtomicInteger();
+    private final ThreadLocal<Connection> transaction = new ThreadLocal<>();
+    private final ThreadLocal<long[]> lastWrite = ThreadLocal.withInitial(() -> new long[]{Long.MIN_VALUE});
+    private volatile int balancing = ROUND_ROBIN;
+    private volatile long pinNanos = TimeUnit.SECONDS.toNanos(1);
+    private volatile long retryNanos = TimeUnit.SECONDS.toNanos(5);
+    private ScheduledExecutorService checker;
+
+    /**
+     * Checks state of replica, for example its replication lag
+     */
+    public interface ReplicaCheck {
+        /**
+         * @param con connection to replica
+         * @return false if replica must not be used until next check
+         * @throws SQLException if check failed, replica is not used until next check
+         */
+        boolean isHealthy(Connection con) throws SQLException;
+    }
+
+    private static class Replica {
+        final DataSource dataSource;
+        final AtomicInteger outstanding = new AtomicInteger();
+        volatile long failedAt;
+        volatile boolean failed;
+        volatile boolean checkFailed;
+
+        Replica(DataSource dataSource) {
+            this.dataSource = dataSource;
+        }
+    }
+
+    /**
+     * @param primary source of connections for writes
+     * @param replicas sources of connections for selects. Without replicas all queries go to primary
+     */
+    public QueryRouter(DataSource primary, DataSource... replicas) {
+        this.primary = primary;
+        this.replicas = new Replica[replicas.length];
+        for (int i = 0; i < replicas.length; i++) {
+            this.replicas[i] = new Replica(replicas[i]);
+        }
+    }
+
+    /**
+     * @param balancing ROUND_ROBIN or LEAST_OUTSTANDING (Default: ROUND_ROBIN)
+     * @return this
+     */
+    public QueryRouter setBalancing(int balancing) {
+        this.balancing = balancing;
+        return this;
+    }
+
+    /**
+     * @param window time after write, while selects of the same thread go to primary. Zero disables pinning (Default: 1 second)
+     * @return this
+     */
+    public QueryRouter setPinWindow(long window, TimeUnit unit) {
+        this.pinNanos = unit.toNanos(window);
+        return this;
+    }
+
+    /**
+     * @param interval time after connection failure, while replica is not used (Default: 5 seconds)
+     * @return this
+     */
+    public QueryRouter setRetryInterval(long interval, TimeUnit unit) {
+        this.retryNanos = unit.toNanos(interval);
+        return this;
+    }
+
+    /**
+     * Starts daemon thread, which checks every replica with interval. Replica, which check returned false
+     * or failed, is not used until it passes next check
+     * @param check check of replica
+     * @param interval interval between checks
+     * @return this
+     */
+    public synchronized QueryRouter setReplicaCheck(ReplicaCheck check, long interval, TimeUnit unit) {
+        if (checker != null) {
+            checker.shutdownNow();
+        }
+        checker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "iql-replica-check");
+            thread.setDaemon(true);
+            return thread;
+        });
+        checker.scheduleWithFixedDelay(() -> {
+            for (Replica replica : replicas) {
+                try (Connection con = replica.dataSource.getConnection()) {
+                    replica.checkFailed = !check.isHealthy(con);
+                } catch (SQLException | RuntimeException e) {
+                    replica.checkFailed = true;
+                }
+            }
+        }, 0, interval, unit);
+        return this;
+    }
+
+    /**
+     * Starts transaction on primary for current thread. Until commit() or rollback() all queries of the thread,
+     * including selects, are executed on one connection to primary
+     * @throws SQLException if connection can not be taken
+     */
+    public void begin() throws SQLException {
+        if (transaction.get() != null) {
+            throw new IllegalStateException("transaction is already started");
+        }
+        Connection con = primary.getConnection();
+        try {
+            con.setAutoCommit(false);
+        } catch (SQLException e) {
+            con.close();
+            throw e;
+        }
+        transaction.set(con);
+    }
+
+    /**
+     * Commits transaction of current thread and pins its selects to primary for pin window
+     * @throws SQLException if commit failed, transaction is ended anyway
+     */
+    public void commit() throws SQLException {
+        end(true);
+    }
+
+    public void rollback() throws SQLException {
+        end(false);
+    }
+
+    /**
+     * @return true if current thread is inside transaction
+     */
+    public boolean isInTransaction() {
+        return transaction.get() != null;
+    }
+
+    private void end(boolean commit) throws SQLException {
+        Connection con = transaction.get();
+        if (con == null) {
+            throw new IllegalStateException("transaction is not started");
+        }
+        transaction.remove();
+        try {
+            if (commit) {
+                con.commit();
+            } else {
+                con.rollback();
+            }
+        } finally {
+            try {
+                con.setAutoCommit(true);
+            } finally {
+                con.close();
+                if (pinNanos > 0) {
+                    pin();
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends selects of current thread to primary during pin window, as after a write
+     */
+    public void pin() {
+        lastWrite.get()[0] = System.nanoTime();
+    }
+
+    /**
+     * @return true if selects of current thread go to primary
+     */
+    public boolean isPinned() {
+        long last = lastWrite.get()[0];
+        return last != Long.MIN_VALUE && System.nanoTime() - last < pinNanos;
+    }
+
+    /**
+     * @return number of replicas, which can be used now
+     */
+    public int getHealthyReplicaCount() {
+        long now = System.nanoTime();
+        int count = 0;
+        for (Replica replica : replicas) {
+            if (isHealthy(replica, now)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private boolean isHealthy(Replica replica, long now) {
+        return !replica.checkFailed && (!replica.failed || now - replica.failedAt >= retryNanos);
+    }
+
+    /**
+     * @return healthy replica, chosen by balancing, or null if selects must go to primary
+     */
+    private Replica chooseReplica() {
+        if (replicas.length == 0 || isPinned()) {
+            return null;
+        }
+        long now = System.nanoTime();
+        int start = next.getAndIncrement() & Integer.MAX_VALUE;
+        Replica chosen = null;
+        for (int i = 0; i < replicas.length; i++) {
+            Replica replica = replicas[(start + i) % replicas.length];
+            if (!isHealthy(replica, now)) {
+                continue;
+            }
+            if (balancing == ROUND_ROBIN) {
+                return replica;
+            }
+            if (chosen == null || replica.outstanding.get() < chosen.outstanding.get()) {
+                chosen = replica;
+            }
+        }
+        return chosen;
+    }
+
+    /**
+     * Builds query in calling thread and executes it on primary, or on replica if it is select
+     * @param query insert, update, delete or create query
+     * @return update count
+     * @throws SQLException if query failed
+     */
+    public int execute(IQL query) throws SQLException {
+        return execute(query.build());
+    }
+
+    public int execute(CompiledQuery query) throws SQLException {
+        return route(query, con -> query.execute(con));
+    }
+
+    /**
+     * Builds select in calling thread, executes it on replica and maps result rows to type
+     * @param query select query
+     * @param type class of result objects
+     * @return mapped objects
+     * @throws SQLException if query failed
+     */
+    public <T> List<T> query(IQL query, Class<T> type) throws SQLException {
+        return query(query.build(), type);
+    }
+
+    public <T> List<T> query(CompiledQuery query, Class<T> type) throws SQLException {
+        return route(query, con -> query.query(con, type));
+    }
+
+    public <T> List<T> query(CompiledQuery query, RowMapper<T> mapper) throws SQLException {
+        return route(query, con -> query.query(con, mapper));
+    }
+
+    private interface ConnectionCallback<R> {
+        R apply(Connection con) throws SQLException;
+    }
+
+    private <R> R route(CompiledQuery query, ConnectionCallback<R> callback) throws SQLException {
+        Connection transactionConnection = transaction.get();
+        if (transactionConnection != null) {
+            return callback.apply(transactionConnection);
+        }
+        if (query.getOperation() != Operation.SELECT) {
+            try (Connection con = primary.getConnection()) {
+                return callback.apply(con);
+            } finally {
+                if (pinNanos > 0) {
+                    pin();
+                }
+            }
+        }
+        for (int attempt = 0; attempt < replicas.length; attempt++) {
+            Replica replica = chooseReplica();
+            if (replica == null) {
+                break;
+            }
+            replica.outstanding.incrementAndGet();
+            try {
+                Connection con;
+                try {
+                    con = replica.dataSource.getConnection();
+                } catch (SQLException e) {
+                    markFailed(replica);
+                    continue;
+                }
+                try {
+                    return callback.apply(con);
+                } catch (SQLException e) {
+                    if (e.getSQLState() == null || !e.getSQLState().startsWith("08")) {
+                        throw e;
+                    }
+                    markFailed(replica);
+                } finally {
+                    con.close();
+                }
+            } finally {
+                replica.outstanding.decrementAndGet();
+            }
+        }
+        try (Connection con = primary.getConnection()) {
+            return callback.apply(con);
+        }
+    }
+
+    /**
+     * Excludes replica, which connection failed, for retry interval
+     */
+    private static void markFailed(Replica replica) {
+        replica.failedAt = System.nanoTime();
+        replica.failed = true;
+    }
+
+    /**
+     * Stops checks of replicas
+     */
+    @Override
+    public synchronized void close() {
+        if (checker != null) {
+            checker.shutdownNow();
+            checker = null;
+        }
+    }
+}
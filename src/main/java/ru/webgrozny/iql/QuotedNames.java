@@ -0,0 +1,52 @@
+package ru.webgrozny.iql;
+
+import ru.webgrozny.iql.dialect.Dialect;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Identifiers, quoted by dialect, and "table"."field" pairs, computed once and shared by all threads.
+ * Number of cached names is limited, further names are quoted on every call
+ */
+final class QuotedNames {
+    private static final int MAX_NAMES = 4096;
+
+    private final Dialect dialect;
+    private final Map<String, String> names = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, String>> columns = new ConcurrentHashMap<>();
+
+    QuotedNames(Dialect dialect) {
+        this.dialect = dialect;
+    }
+
+    Dialect getDialect() {
+        return dialect;
+    }
+
+    String quote(String name) {
+        String quoted = names.get(name);
+        if (quoted == null) {
+            quoted = dialect.quote(name);
+            if (names.size() < MAX_NAMES) {
+                names.put(name, quoted);
+            }
+        }
+        return quoted;
+    }
+
+    String quote(String table, String field) {
+        Map<String, String> tableColumns = columns.get(table);
+        String quoted = tableColumns == null ? null : tableColumns.get(field);
+        if (quoted == null) {
+            quoted = quote(table) + "." + quote(field);
+            if (tableColumns == null && columns.size() < MAX_NAMES) {
+                tableColumns = columns.computeIfAbsent(table, t -> new ConcurrentHashMap<>());
+            }
+            if (tableColumns != null && tableColumns.size() < MAX_NAMES) {
+                tableColumns.put(field, quoted);
+            }
+        }
+        return quoted;
+    }
+}
@@ -0,0 +1,77 @@
+package ru.webgrozny.iql;
+
+import ru.webgrozny.iql.exceptions.QueryExecutionException;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterator over mapped rows of result set. Statement and result set are closed, when iterator is exhausted or closed.
+ * SQLException while reading rows is thrown as QueryExecutionException
+ */
+public class ResultIterator<T> implements Iterator<T>, AutoCloseable {
+    private final PreparedStatement ps;
+    private final ResultSet rs;
+    private final RowMapper<T> mapper;
+    private boolean fetched;
+    private boolean hasNext;
+    private boolean closed;
+
+    ResultIterator(PreparedStatement ps, ResultSet rs, RowMapper<T> mapper) {
+        this.ps = ps;
+        this.rs = rs;
+        this.mapper = mapper;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (closed) {
+            return false;
+        }
+        if (!fetched) {
+            try {
+                hasNext = rs.next();
+            } catch (SQLException e) {
+                close();
+                throw new QueryExecutionException(e);
+            }
+            fetched = true;
+            if (!hasNext) {
+                close();
+            }
+        }
+        return hasNext;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        fetched = false;
+        try {
+            return mapper.map(rs);
+        } catch (SQLException e) {
+            close();
+            throw new QueryExecutionException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            try {
+                rs.close();
+            } catch (SQLException ignored) {
+            }
+            try {
+                ps.close();
+            } catch (SQLException ignored) {
+            }
+        }
+    }
+}
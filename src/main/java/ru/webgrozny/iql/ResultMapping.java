@@ -0,0 +1,456 @@
+package ru.webgrozny.iql;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Maps rows of result set to POJOs or records. Columns are bound to setters, fields or record components once
+ * for class and SQL text, and binding is cached as method handles. Cache keeps up to 1024 bindings,
+ * evicting with CLOCK policy, so it does not grow with every SQL text and does not hold classes forever.
+ * Columns of selected fields with %i, %d, %f or %b signature are read with primitive getters
+ */
+final class ResultMapping<T> implements RowMapper<T> {
+    private static final int MAX_CACHED = 1024;
+    private static final ConcurrentMap<Key, ResultMapping<?>> CACHE = new ConcurrentHashMap<>();
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private final MethodHandle constructor;
+    private final ColumnBinder[] binders;
+    private final ValueReader[] arguments;
+    private volatile boolean referenced;
+
+    private static final class Key {
+        final Class<?> type;
+        final String sql;
+
+        Key(Class<?> type, String sql) {
+            this.type = type;
+            this.sql = sql;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return type == key.type && sql.equals(key.sql);
+        }
+
+        @Override
+        public int hashCode() {
+            return type.hashCode() * 31 + sql.hashCode();
+        }
+    }
+
+    /**
+     * Reads value of column as object of target type
+     */
+    private interface ValueReader {
+        Object read(ResultSet rs) throws SQLException;
+    }
+
+    private abstract static class ColumnBinder {
+        final int column;
+        final MethodHandle setter;
+
+        ColumnBinder(int column, MethodHandle setter, Class<?> valueType) {
+            this.column = column;
+            this.setter = setter.asType(MethodType.methodType(void.class, Object.class, valueType));
+        }
+
+        abstract void apply(ResultSet rs, Object target) throws Throwable;
+    }
+
+    private static final class IntBinder extends ColumnBinder {
+        IntBinder(int column, MethodHandle setter) {
+            super(column, setter, int.class);
+        }
+
+        void apply(ResultSet rs, Object target) throws Throwable {
+            setter.invokeExact(target, rs.getInt(column));
+        }
+    }
+
+    private static final class LongBinder extends ColumnBinder {
+        LongBinder(int column, MethodHandle setter) {
+            super(column, setter, long.class);
+        }
+
+        void apply(ResultSet rs, Object target) throws Throwable {
+            setter.invokeExact(target, rs.getLong(column));
+        }
+    }
+
+    private static final class FloatBinder extends ColumnBinder {
+        FloatBinder(int column, MethodHandle setter) {
+            super(column, setter, float.class);
+        }
+
+        void apply(ResultSet rs, Object target) throws Throwable {
+            setter.invokeExact(target, rs.getFloat(column));
+        }
+    }
+
+    private static final class DoubleBinder extends ColumnBinder {
+        DoubleBinder(int column, MethodHandle setter) {
+            super(column, setter, double.class);
+        }
+
+        void apply(ResultSet rs, Object target) throws Throwable {
+            setter.invokeExact(target, rs.getDouble(column));
+        }
+    }
+
+    private static final class BooleanBinder extends ColumnBinder {
+        BooleanBinder(int column, MethodHandle setter) {
+            super(column, setter, boolean.class);
+        }
+
+        void apply(ResultSet rs, Object target) throws Throwable {
+            setter.invokeExact(target, rs.getBoolean(column));
+        }
+    }
+
+    private static final class ObjectBinder extends ColumnBinder {
+        final ValueReader reader;
+
+        ObjectBinder(int column, MethodHandle setter, ValueReader reader) {
+            super(column, setter, Object.class);
+            this.reader = reader;
+        }
+
+        void apply(ResultSet rs, Object target) throws Throwable {
+            setter.invokeExact(target, reader.read(rs));
+        }
+    }
+
+    private ResultMapping(MethodHandle constructor, ColumnBinder[] binders, ValueReader[] arguments) {
+        this.constructor = constructor;
+        this.binders = binders;
+        this.arguments = arguments;
+    }
+
+    /**
+     * @param type class of result objects
+     * @param query executed query
+     * @param metaData meta data of result set
+     * @return cached or created mapping
+     * @throws SQLException if meta data can not be read
+     */
+    @SuppressWarnings("unchecked")
+    static <T> ResultMapping<T> get(Class<T> type, CompiledQuery query, ResultSetMetaData metaData) throws SQLException {
+        Key key = new Key(type, query.getSql());
+        ResultMapping<?> mapping = CACHE.get(key);
+        if (mapping == null) {
+            mapping = create(type, query.getMeta(), metaData);
+            if (CACHE.putIfAbsent(key, mapping) == null) {
+                while (CACHE.size() > MAX_CACHED) {
+                    evict();
+                }
+            }
+        } else {
+            mapping.referenced = true;
+        }
+        return (ResultMapping<T>) mapping;
+    }
+
+    /**
+     * Removes first binding, that was not used since previous sweep, or first binding, if all were used
+     */
+    private static void evict() {
+        Iterator<ResultMapping<?>> it = CACHE.values().iterator();
+        while (it.hasNext()) {
+            ResultMapping<?> mapping = it.next();
+            if (mapping.referenced) {
+                mapping.referenced = false;
+            } else {
+                it.remove();
+                return;
+            }
+        }
+        it = CACHE.values().iterator();
+        if (it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    /**
+     * @return number of cached bindings
+     */
+    static int getCachedCount() {
+        return CACHE.size();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T map(ResultSet rs) throws SQLException {
+        try {
+            if (arguments != null) {
+                Object[] args = new Object[arguments.length];
+                for (int i = 0; i < args.length; i++) {
+                    args[i] = arguments[i].read(rs);
+                }
+                return (T) constructor.invoke(args);
+            }
+            Object target = constructor.invoke();
+            for (ColumnBinder binder : binders) {
+                binder.apply(rs, target);
+            }
+            return (T) target;
+        } catch (SQLException | RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new SQLException(e);
+        }
+    }
+
+    private static <T> ResultMapping<T> create(Class<T> type, QueryMeta meta, ResultSetMetaData metaData) throws SQLException {
+        int columnCount = metaData.getColumnCount();
+        Map<String, Integer> columns = new HashMap<>();
+        Map<String, DataType> declaredTypes = new HashMap<>();
+        for (int i = columnCount; i >= 1; i--) {
+            String label = metaData.getColumnLabel(i);
+            DataType declared = meta.getColumnType(label);
+            String field = meta.getColumnField(label);
+            if (field != null) {
+                columns.put(normalize(field), i);
+                declaredTypes.put(normalize(field), declared);
+            }
+        }
+        for (int i = columnCount; i >= 1; i--) {
+            String label = metaData.getColumnLabel(i);
+            columns.put(normalize(label), i);
+            declaredTypes.put(normalize(label), meta.getColumnType(label));
+        }
+        try {
+            Object[] components = getRecordComponents(type);
+            if (components != null) {
+                return createForRecord(type, components, columns, declaredTypes);
+            }
+            return createForBean(type, columns, declaredTypes);
+        } catch (ReflectiveOperationException e) {
+            throw new SQLException("Can not map result to " + type.getName(), e);
+        }
+    }
+
+    private static <T> ResultMapping<T> createForBean(Class<T> type, Map<String, Integer> columns, Map<String, DataType> declaredTypes) throws ReflectiveOperationException {
+        Constructor<T> ctor = type.getDeclaredConstructor();
+        ctor.setAccessible(true);
+        MethodHandle constructor = LOOKUP.unreflectConstructor(ctor).asType(MethodType.methodType(Object.class));
+        Map<String, MethodHandle> setters = new HashMap<>();
+        Map<String, Class<?>> setterTypes = new HashMap<>();
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                String name = normalize(field.getName());
+                if (!Modifier.isStatic(modifiers) && !Modifier.isFinal(modifiers) && !setters.containsKey(name)) {
+                    field.setAccessible(true);
+                    setters.put(name, LOOKUP.unreflectSetter(field));
+                    setterTypes.put(name, field.getType());
+                }
+            }
+        }
+        for (Method method : type.getMethods()) {
+            if (method.getName().startsWith("set") && method.getName().length() > 3 && method.getParameterCount() == 1
+                    && !Modifier.isStatic(method.getModifiers())) {
+                String name = normalize(method.getName().substring(3));
+                setters.put(name, LOOKUP.unreflect(method));
+                setterTypes.put(name, method.getParameterTypes()[0]);
+            }
+        }
+        List<ColumnBinder> binders = new ArrayList<>();
+        for (Map.Entry<String, MethodHandle> setter : setters.entrySet()) {
+            Integer column = columns.get(setter.getKey());
+            if (column != null) {
+                binders.add(createBinder(column, setter.getValue(), setterTypes.get(setter.getKey()), declaredTypes.get(setter.getKey())));
+            }
+        }
+        return new ResultMapping<>(constructor, binders.toArray(new ColumnBinder[0]), null);
+    }
+
+    private static <T> ResultMapping<T> createForRecord(Class<T> type, Object[] components, Map<String, Integer> columns, Map<String, DataType> declaredTypes) throws ReflectiveOperationException {
+        Class<?>[] componentTypes = new Class<?>[components.length];
+        ValueReader[] arguments = new ValueReader[components.length];
+        for (int i = 0; i < components.length; i++) {
+            String name = normalize((String) components[i].getClass().getMethod("getName").invoke(components[i]));
+            componentTypes[i] = (Class<?>) components[i].getClass().getMethod("getType").invoke(components[i]);
+            Integer column = columns.get(name);
+            if (column != null) {
+                arguments[i] = createReader(column, componentTypes[i], declaredTypes.get(name));
+            } else {
+                Object defaultValue = componentTypes[i].isPrimitive() ? Array.get(Array.newInstance(componentTypes[i], 1), 0) : null;
+                arguments[i] = rs -> defaultValue;
+            }
+        }
+        Constructor<T> ctor = type.getDeclaredConstructor(componentTypes);
+        ctor.setAccessible(true);
+        MethodHandle constructor = LOOKUP.unreflectConstructor(ctor)
+                .asType(MethodType.genericMethodType(components.length))
+                .asSpreader(Object[].class, components.length);
+        return new ResultMapping<>(constructor, null, arguments);
+    }
+
+    /**
+     * @return record components of type, or null, if type is not record or records are not supported by JVM
+     */
+    private static Object[] getRecordComponents(Class<?> type) {
+        try {
+            if (!(Boolean) Class.class.getMethod("isRecord").invoke(type)) {
+                return null;
+            }
+            return (Object[]) Class.class.getMethod("getRecordComponents").invoke(type);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static ColumnBinder createBinder(int column, MethodHandle setter, Class<?> target, DataType declared) {
+        if (target.isPrimitive()) {
+            if ((declared == DataType.RT_I || declared == DataType.RT_D) && isWidening(int.class, target)) {
+                return new IntBinder(column, setter);
+            }
+            if (declared == DataType.RT_F && isWidening(float.class, target)) {
+                return new FloatBinder(column, setter);
+            }
+            if (target == int.class) {
+                return new IntBinder(column, setter);
+            }
+            if (target == long.class) {
+                return new LongBinder(column, setter);
+            }
+            if (target == float.class) {
+                return new FloatBinder(column, setter);
+            }
+            if (target == double.class) {
+                return new DoubleBinder(column, setter);
+            }
+            if (target == boolean.class) {
+                return new BooleanBinder(column, setter);
+            }
+        }
+        return new ObjectBinder(column, setter, createReader(column, target, declared));
+    }
+
+    private static boolean isWidening(Class<?> from, Class<?> to) {
+        if (from == to) {
+            return true;
+        }
+        if (from == int.class) {
+            return to == long.class || to == float.class || to == double.class;
+        }
+        return from == float.class && to == double.class;
+    }
+
+    private static ValueReader createReader(int column, Class<?> target, DataType declared) {
+        if (target == String.class) {
+            return rs -> rs.getString(column);
+        }
+        if (target == int.class) {
+            return rs -> rs.getInt(column);
+        }
+        if (target == long.class) {
+            return rs -> rs.getLong(column);
+        }
+        if (target == float.class) {
+            return rs -> rs.getFloat(column);
+        }
+        if (target == double.class) {
+            return rs -> rs.getDouble(column);
+        }
+        if (target == boolean.class) {
+            return rs -> rs.getBoolean(column);
+        }
+        if (target == short.class) {
+            return rs -> rs.getShort(column);
+        }
+        if (target == byte.class) {
+            return rs -> rs.getByte(column);
+        }
+        if (target == Integer.class) {
+            return rs -> {
+                int value = rs.getInt(column);
+                return rs.wasNull() ? null : value;
+            };
+        }
+        if (target == Long.class) {
+            return rs -> {
+                long value = rs.getLong(column);
+                return rs.wasNull() ? null : value;
+            };
+        }
+        if (target == Float.class) {
+            return rs -> {
+                float value = rs.getFloat(column);
+                return rs.wasNull() ? null : value;
+            };
+        }
+        if (target == Double.class) {
+            return rs -> {
+                double value = rs.getDouble(column);
+                return rs.wasNull() ? null : value;
+            };
+        }
+        if (target == Boolean.class) {
+            return rs -> {
+                boolean value = rs.getBoolean(column);
+                return rs.wasNull() ? null : value;
+            };
+        }
+        if (target == BigDecimal.class) {
+            return rs -> rs.getBigDecimal(column);
+        }
+        if (target == Date.class) {
+            if (declared == DataType.RT_D) {
+                return rs -> {
+                    int value = rs.getInt(column);
+                    return rs.wasNull() ? null : new Date(value * 1000L);
+                };
+            }
+            return rs -> {
+                Object value = rs.getObject(column);
+                if (value instanceof Number) {
+                    return new Date(((Number) value).longValue() * 1000L);
+                }
+                return value instanceof Date ? new Date(((Date) value).getTime()) : null;
+            };
+        }
+        if (target == Object.class) {
+            return rs -> rs.getObject(column);
+        }
+        return rs -> rs.getObject(column, target);
+    }
+
+    /**
+     * @return lower case name without underscores
+     */
+    private static String normalize(String name) {
+        StringBuilder ret = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c != '_') {
+                ret.append(Character.toLowerCase(c));
+            }
+        }
+        return ret.toString();
+    }
+}
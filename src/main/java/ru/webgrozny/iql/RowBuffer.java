@@ -0,0 +1,242 @@
+package ru.webgrozny.iql;
+
+import ru.webgrozny.iql.queryfilter.SqlRenderer;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * Rows of insertable data, stored by columns: int[] for %i and %d, float[] for %f, boolean[] for %b
+ * and String[] for string types, so values are stored and bound without boxing
+ */
+final class RowBuffer {
+    private final DataType[] types;
+    private final Object[] columns;
+    private int size;
+    private int capacity;
+
+    RowBuffer(DataType[] types) {
+        this(types, 16);
+    }
+
+    RowBuffer(DataType[] types, int capacity) {
+        this.types = types;
+        this.capacity = Math.max(capacity, 1);
+        this.columns = new Object[types.length];
+        for (int i = 0; i < types.length; i++) {
+            columns[i] = newColumn(types[i], this.capacity);
+        }
+    }
+
+    private static Object newColumn(DataType type, int capacity) {
+        switch (type) {
+            case RT_I:
+            case RT_D:
+                return new int[capacity];
+            case RT_F:
+                return new float[capacity];
+            case RT_B:
+                return new boolean[capacity];
+            default:
+                return new String[capacity];
+        }
+    }
+
+    private static Object grow(Object column, int capacity) {
+        if (column instanceof int[]) {
+            return Arrays.copyOf((int[]) column, capacity);
+        }
+        if (column instanceof float[]) {
+            return Arrays.copyOf((float[]) column, capacity);
+        }
+        if (column instanceof boolean[]) {
+            return Arrays.copyOf((boolean[]) column, capacity);
+        }
+        return Arrays.copyOf((String[]) column, capacity);
+    }
+
+    DataType[] getTypes() {
+        return types;
+    }
+
+    int getColumnCount() {
+        return types.length;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Adds empty row
+     * @return index of added row
+     */
+    int addRow() {
+        if (size == capacity) {
+            capacity *= 2;
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = grow(columns[i], capacity);
+            }
+        }
+        return size++;
+    }
+
+    /**
+     * Removes last row, for example if its data could not be converted
+     */
+    void removeLastRow() {
+        size--;
+    }
+
+    /**
+     * Converts value with codec and stores it to row
+     */
+    void put(int row, int column, ValueCodec codec, Object data) {
+        switch (types[column]) {
+            case RT_I:
+            case RT_D:
+                ((int[]) columns[column])[row] = codec.encodeInt(data);
+                break;
+            case RT_F:
+                ((float[]) columns[column])[row] = codec.encodeFloat(data);
+                break;
+            case RT_B:
+                ((boolean[]) columns[column])[row] = codec.encodeBoolean(data);
+                break;
+            default:
+                ((String[]) columns[column])[row] = codec.encodeString(data);
+        }
+    }
+
+    /**
+     * @return boxed value
+     */
+    Object get(int row, int column) {
+        switch (types[column]) {
+            case RT_I:
+            case RT_D:
+                return ((int[]) columns[column])[row];
+            case RT_F:
+                return ((float[]) columns[column])[row];
+            case RT_B:
+                return ((boolean[]) columns[column])[row];
+            default:
+                return ((String[]) columns[column])[row];
+        }
+    }
+
+    /**
+     * Sets values of rows to statement
+     * @param from index of first row
+     * @param count number of rows
+     * @param index index of first parameter
+     * @return index of next parameter
+     * @throws SQLException if values can not be set
+     */
+    int bind(PreparedStatement ps, int from, int count, int index) throws SQLException {
+        for (int row = from; row < from + count; row++) {
+            for (int column = 0; column < columns.length; column++) {
+                switch (types[column]) {
+                    case RT_I:
+                    case RT_D:
+                        ps.setInt(index++, ((int[]) columns[column])[row]);
+                        break;
+                    case RT_F:
+                        ps.setFloat(index++, ((float[]) columns[column])[row]);
+                        break;
+                    case RT_B:
+                        ps.setBoolean(index++, ((boolean[]) columns[column])[row]);
+                        break;
+                    default:
+                        ps.setString(index++, ((String[]) columns[column])[row]);
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Appends row in CSV format: fields separated by comma, strings in double quotes, booleans as 1 and 0
+     * @param row index of row
+     * @param out buffer for CSV
+     * @param nullToken token for null strings
+     */
+    void appendCsv(int row, StringBuilder out, String nullToken) {
+        for (int column = 0; column < columns.length; column++) {
+            if (column > 0) {
+                out.append(',');
+            }
+            switch (types[column]) {
+                case RT_I:
+                case RT_D:
+                    out.append(((int[]) columns[column])[row]);
+                    break;
+                case RT_F:
+                    out.append(((float[]) columns[column])[row]);
+                    break;
+                case RT_B:
+                    out.append(((boolean[]) columns[column])[row] ? '1' : '0');
+                    break;
+                default:
+                    String value = ((String[]) columns[column])[row];
+                    if (value == null) {
+                        out.append(nullToken);
+                    } else {
+                        out.append('"');
+                        for (int i = 0; i < value.length(); i++) {
+                            char c = value.charAt(i);
+                            if (c == '"') {
+                                out.append('"');
+                            }
+                            out.append(c);
+                        }
+                        out.append('"');
+                    }
+            }
+        }
+        out.append('\n');
+    }
+
+    /**
+     * Renders values of rows to placeholders, until renderer is full
+     */
+    void render(SqlRenderer renderer) {
+        for (int row = 0; row < size && !renderer.isFull(); row++) {
+            for (int column = 0; column < columns.length; column++) {
+                switch (types[column]) {
+                    case RT_I:
+                    case RT_D:
+                        renderer.setInt(((int[]) columns[column])[row]);
+                        break;
+                    case RT_F:
+                        renderer.setFloat(((float[]) columns[column])[row]);
+                        break;
+                    case RT_B:
+                        renderer.setBoolean(((boolean[]) columns[column])[row]);
+                        break;
+                    default:
+                        renderer.setString(((String[]) columns[column])[row]);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return expected length of all rendered values
+     */
+    int estimateRenderedLength() {
+        int length = 0;
+        for (int column = 0; column < columns.length; column++) {
+            if (columns[column] instanceof String[]) {
+                String[] values = (String[]) columns[column];
+                for (int row = 0; row < size; row++) {
+                    length += SqlRenderer.estimateLength(values[row]);
+                }
+            } else {
+                length += 11 * size;
+            }
+        }
+        return length;
+    }
+}
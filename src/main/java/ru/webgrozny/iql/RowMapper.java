@@ -0,0 +1,13 @@
+package ru.webgrozny.iql;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+public interface RowMapper<T> {
+    /**
+     * @param rs result set, positioned on row to map
+     * @return object for current row
+     * @throws SQLException if row can not be read
+     */
+    T map(ResultSet rs) throws SQLException;
+}
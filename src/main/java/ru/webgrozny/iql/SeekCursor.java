@@ -0,0 +1,119 @@
+package ru.webgrozny.iql;
+
+import ru.webgrozny.iql.exceptions.RowFormatException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Opaque token with sort keys of last row of page, for IQL.seekAfter().
+ * Keys are encoded with their type (Integer, Long, Float, Double, Boolean, Date, String or null) without loss of precision,
+ * so they are restored as is. Short and Byte are restored as Integer, keys of other classes as String
+ */
+public final class SeekCursor {
+    private SeekCursor() {
+    }
+
+    /**
+     * @param keys values of fields, ordered by orderBy(), from last row of page
+     * @return URL-safe token
+     */
+    public static String encode(Object... keys) {
+        StringBuilder ret = new StringBuilder();
+        for (Object key : keys) {
+            if (key == null) {
+                ret.append('n');
+            } else if (key instanceof Integer || key instanceof Short || key instanceof Byte) {
+                ret.append('i').append(key);
+            } else if (key instanceof Long) {
+                ret.append('l').append(key);
+            } else if (key instanceof Float) {
+                ret.append('f').append(key);
+            } else if (key instanceof Double) {
+                ret.append('d').append(key);
+            } else if (key instanceof Boolean) {
+                ret.append('b').append(key);
+            } else if (key instanceof Date) {
+                ret.append('t').append(((Date) key).getTime());
+            } else {
+                ret.append('s');
+                String str = key.toString();
+                for (int i = 0; i < str.length(); i++) {
+                    char c = str.charAt(i);
+                    if (c == '\\' || c == ';') {
+                        ret.append('\\');
+                    }
+                    ret.append(c);
+                }
+            }
+            ret.append(';');
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(ret.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param cursor token, created by encode()
+     * @return sort keys
+     * @throws RowFormatException if token is malformed
+     */
+    public static Object[] decode(String cursor) {
+        String str;
+        try {
+            str = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new RowFormatException();
+        }
+        List<Object> keys = new ArrayList<>();
+        StringBuilder value = new StringBuilder();
+        int i = 0;
+        while (i < str.length()) {
+            char type = str.charAt(i++);
+            value.setLength(0);
+            while (i < str.length() && str.charAt(i) != ';') {
+                char c = str.charAt(i++);
+                if (c == '\\' && i < str.length()) {
+                    c = str.charAt(i++);
+                }
+                value.append(c);
+            }
+            if (i++ >= str.length()) {
+                throw new RowFormatException();
+            }
+            keys.add(parseKey(type, value.toString()));
+        }
+        return keys.toArray();
+    }
+
+    private static Object parseKey(char type, String value) {
+        switch (type) {
+            case 'n':
+                return null;
+            case 'i':
+                return ValueCodec.parseInt(value, 0);
+            case 'l':
+            case 't':
+                long number;
+                try {
+                    number = Long.parseLong(value);
+                } catch (NumberFormatException e) {
+                    throw new RowFormatException();
+                }
+                return type == 'l' ? (Object) number : new Date(number);
+            case 'f':
+            case 'd':
+                if (!ValueCodec.isFloat(value)) {
+                    throw new RowFormatException();
+                }
+                return type == 'f' ? (Object) Float.parseFloat(value) : Double.parseDouble(value);
+            case 'b':
+                return Boolean.parseBoolean(value);
+            case 's':
+                return value;
+            default:
+                throw new RowFormatException();
+        }
+    }
+}
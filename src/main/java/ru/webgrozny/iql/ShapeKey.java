@@ -0,0 +1,122 @@
+package ru.webgrozny.iql;
+
+import java.util.Arrays;
+
+/**
+ * Key of query shape for SQL cache. Parts of shape are written as text to reusable char buffer,
+ * so lookup key is filled without allocation. Key, stored in cache, is an immutable copy()
+ */
+final class ShapeKey {
+    private static final char SEPARATOR = '\u0000';
+    private static final char NULL_MARKER = '\u0001';
+
+    private Object dialect;
+    private char[] text;
+    private int length;
+    private int hash;
+
+    ShapeKey(int capacity) {
+        text = new char[Math.max(capacity, 16)];
+    }
+
+    /**
+     * @param dialect dialect of query, compared by identity
+     */
+    void clear(Object dialect) {
+        this.dialect = dialect;
+        length = 0;
+        hash = 0;
+    }
+
+    ShapeKey add(CharSequence part) {
+        if (part == null) {
+            ensureCapacity(2);
+            text[length++] = NULL_MARKER;
+        } else {
+            int partLength = part.length();
+            ensureCapacity(partLength + 1);
+            for (int i = 0; i < partLength; i++) {
+                text[length++] = part.charAt(i);
+            }
+        }
+        text[length++] = SEPARATOR;
+        hash = 0;
+        return this;
+    }
+
+    ShapeKey add(int value) {
+        ensureCapacity(12);
+        if (value < 0) {
+            text[length++] = '-';
+        }
+        long rest = Math.abs((long) value);
+        int start = length;
+        do {
+            text[length++] = (char) ('0' + rest % 10);
+            rest /= 10;
+        } while (rest > 0);
+        for (int i = start, j = length - 1; i < j; i++, j--) {
+            char c = text[i];
+            text[i] = text[j];
+            text[j] = c;
+        }
+        text[length++] = SEPARATOR;
+        hash = 0;
+        return this;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > text.length) {
+            text = Arrays.copyOf(text, Math.max(text.length * 2, length + extra));
+        }
+    }
+
+    /**
+     * @return chars, used by key. Large buffer is not retained by reusable key
+     */
+    int getCapacity() {
+        return text.length;
+    }
+
+    ShapeKey copy() {
+        ShapeKey copy = new ShapeKey(0);
+        copy.dialect = dialect;
+        copy.text = Arrays.copyOf(text, length);
+        copy.length = length;
+        copy.hash = hash;
+        return copy;
+    }
+
+    @Override
+    public int hashCode() {
+        int h = hash;
+        if (h == 0) {
+            h = System.identityHashCode(dialect);
+            for (int i = 0; i < length; i++) {
+                h = 31 * h + text[i];
+            }
+            hash = h;
+        }
+        return h;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ShapeKey)) {
+            return false;
+        }
+        ShapeKey key = (ShapeKey) o;
+        if (dialect != key.dialect || length != key.length || hashCode() != key.hashCode()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (text[i] != key.text[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
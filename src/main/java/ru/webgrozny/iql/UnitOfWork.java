@@ -0,0 +1,170 @@
+package ru.webgrozny.iql;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects insert, update, delete and create queries and executes them together in one transaction.
+ * Consecutive queries with the same SQL are sent as one JDBC batch. With multi statements enabled,
+ * other consecutive queries are joined to one statement, separated by semicolon, and sent at once
+ */
+public class UnitOfWork {
+    private final List<CompiledQuery> queries = new ArrayList<>();
+    private boolean multiStatements;
+    private int roundTrips;
+
+    /**
+     * Joins consecutive different queries to one statement. Driver must accept several statements in one
+     * prepared statement: allowMultiQueries=true for MySQL, PostgreSQL driver accepts them by default
+     * @param multiStatements true to join queries (Default: false)
+     * @return this
+     */
+    public UnitOfWork setMultiStatements(boolean multiStatements) {
+        this.multiStatements = multiStatements;
+        return this;
+    }
+
+    /**
+     * Builds query and adds it to unit
+     * @param query insert, update, delete or create query
+     * @return index of query in result of execute()
+     */
+    public int add(IQL query) {
+        return add(query.build());
+    }
+
+    public int add(CompiledQuery query) {
+        if (query.getOperation() == Operation.SELECT) {
+            throw new IllegalArgumentException("select can not be added to unit of work");
+        }
+        queries.add(query);
+        return queries.size() - 1;
+    }
+
+    public int size() {
+        return queries.size();
+    }
+
+    public void clear() {
+        queries.clear();
+    }
+
+    /**
+     * Executes all queries in order. If connection is in auto-commit mode, queries are executed in one transaction,
+     * which is committed at the end or rolled back if a query failed. Otherwise transaction is left to caller
+     * @param con connection to execute queries
+     * @return update count of every query, in order of adding. Batched queries may have Statement.SUCCESS_NO_INFO,
+     * joined queries may have -1, if driver does not report their counts
+     * @throws SQLException if a query failed
+     */
+    public int[] execute(Connection con) throws SQLException {
+        int[] counts = new int[queries.size()];
+        roundTrips = 0;
+        boolean autoCommit = con.getAutoCommit();
+        if (autoCommit) {
+            con.setAutoCommit(false);
+        }
+        try {
+            int from = 0;
+            while (from < queries.size()) {
+                int to = sameSqlEnd(from);
+                if (to - from == 1 && multiStatements) {
+                    to = executeJoined(con, from, counts);
+                } else {
+                    executeBatch(con, from, to, counts);
+                }
+                roundTrips++;
+                from = to;
+            }
+            if (autoCommit) {
+                con.commit();
+                roundTrips++;
+            }
+        } catch (SQLException | RuntimeException e) {
+            if (autoCommit) {
+                con.rollback();
+            }
+            throw e;
+        } finally {
+            if (autoCommit) {
+                con.setAutoCommit(true);
+            }
+            for (CompiledQuery query : queries) {
+                String[] tables = query.getMeta().getTables();
+                if (tables.length > 0) {
+                    IQL.invalidateResults(con, tables[0]);
+                }
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * @return number of statement executions and commits, sent to driver by last execute()
+     */
+    public int getRoundTrips() {
+        return roundTrips;
+    }
+
+    /**
+     * @return index after last query, which has the same SQL as query at from
+     */
+    private int sameSqlEnd(int from) {
+        String sql = queries.get(from).getSql();
+        int to = from + 1;
+        while (to < queries.size() && queries.get(to).getSql().equals(sql)) {
+            to++;
+        }
+        return to;
+    }
+
+    private void executeBatch(Connection con, int from, int to, int[] counts) throws SQLException {
+        try (PreparedStatement ps = con.prepareStatement(queries.get(from).getSql())) {
+            if (to - from == 1) {
+                queries.get(from).bindTo(ps, 1);
+                counts[from] = ps.executeUpdate();
+                return;
+            }
+            for (int i = from; i < to; i++) {
+                queries.get(i).bindTo(ps, 1);
+                ps.addBatch();
+            }
+            int[] batch = ps.executeBatch();
+            System.arraycopy(batch, 0, counts, from, batch.length);
+        }
+    }
+
+    /**
+     * Joins queries from index, until next batch or parameter limit, and executes them as one statement
+     * @return index after last executed query
+     */
+    private int executeJoined(Connection con, int from, int[] counts) throws SQLException {
+        StringBuilder sql = new StringBuilder(queries.get(from).getSql());
+        int parameters = queries.get(from).getParameterCount();
+        int to = from + 1;
+        while (to < queries.size() && sameSqlEnd(to) == to + 1) {
+            CompiledQuery query = queries.get(to);
+            if (parameters + query.getParameterCount() > IQL.MAX_PARAMETERS) {
+                break;
+            }
+            sql.append("; ").append(query.getSql());
+            parameters += query.getParameterCount();
+            to++;
+        }
+        try (PreparedStatement ps = con.prepareStatement(sql.toString())) {
+            int index = 1;
+            for (int i = from; i < to; i++) {
+                index = queries.get(i).bindTo(ps, index);
+            }
+            boolean resultSet = ps.execute();
+            for (int i = from; i < to; i++) {
+                counts[i] = resultSet ? 0 : ps.getUpdateCount();
+                resultSet = ps.getMoreResults();
+            }
+        }
+        return to;
+    }
+}
@@ -0,0 +1,319 @@
+package ru.webgrozny.iql;
+
+import ru.webgrozny.iql.exceptions.RowFormatException;
+
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Converts input values to data type of field. Codec is selected once for data type and class of input value,
+ * so conversion does not use exceptions for type dispatch
+ */
+abstract class ValueCodec {
+    private static final ThreadLocal<DateFormatHolder> DATE_FORMATS = new ThreadLocal<>();
+
+    private static class DateFormatHolder {
+        final String pattern;
+        final SimpleDateFormat format;
+
+        DateFormatHolder(String pattern) {
+            this.pattern = pattern;
+            this.format = new SimpleDateFormat(pattern);
+        }
+    }
+
+    /**
+     * @param data input value
+     * @return value of field type: String, Integer, Boolean or Float
+     */
+    abstract Object encode(Object data);
+
+    int encodeInt(Object data) {
+        return (Integer) encode(data);
+    }
+
+    float encodeFloat(Object data) {
+        return (Float) encode(data);
+    }
+
+    boolean encodeBoolean(Object data) {
+        return (Boolean) encode(data);
+    }
+
+    String encodeString(Object data) {
+        return (String) encode(data);
+    }
+
+    /**
+     * @param type field data type
+     * @param inputClass class of input values, null for null values
+     * @return codec for type and input class
+     */
+    static ValueCodec select(DataType type, Class<?> inputClass) {
+        switch (type) {
+            case RT_S:
+                return STRING_FILTER;
+            case RT_V:
+                return STRING;
+            case RT_T:
+                return TEXT_FILTER;
+            case RT_I:
+                if (inputClass == Integer.class) {
+                    return INT_FROM_INTEGER;
+                }
+                return inputClass == null ? NULL_VALUE : INT_FROM_STRING;
+            case RT_B:
+                if (inputClass == Boolean.class) {
+                    return BOOLEAN_FROM_BOOLEAN;
+                }
+                return inputClass == null ? NULL_VALUE : BOOLEAN_FROM_STRING;
+            case RT_D:
+                if (inputClass == Integer.class) {
+                    return INT_FROM_INTEGER;
+                }
+                if (inputClass != null && Date.class.isAssignableFrom(inputClass)) {
+                    return DATE_FROM_DATE;
+                }
+                if (inputClass == String.class) {
+                    return DATE_FROM_STRING;
+                }
+                return NULL_VALUE;
+            case RT_F:
+                if (inputClass == Float.class) {
+                    return FLOAT_FROM_FLOAT;
+                }
+                return inputClass == null ? NULL_VALUE : FLOAT_FROM_STRING;
+            default:
+                throw new RowFormatException();
+        }
+    }
+
+    /**
+     * Parses decimal integer without exceptions
+     * @param s string to parse
+     * @param fallback value for strings, that are not integers or out of int range
+     * @return parsed integer or fallback
+     */
+    static int parseInt(String s, int fallback) {
+        int len = s.length();
+        if (len == 0) {
+            return fallback;
+        }
+        int i = 0;
+        boolean negative = false;
+        char first = s.charAt(0);
+        if (first == '-' || first == '+') {
+            if (len == 1) {
+                return fallback;
+            }
+            negative = first == '-';
+            i = 1;
+        }
+        int limit = negative ? Integer.MIN_VALUE : -Integer.MAX_VALUE;
+        int multmin = limit / 10;
+        int result = 0;
+        for (; i < len; i++) {
+            int digit = Character.digit(s.charAt(i), 10);
+            if (digit < 0 || result < multmin) {
+                return fallback;
+            }
+            result *= 10;
+            if (result < limit + digit) {
+                return fallback;
+            }
+            result -= digit;
+        }
+        return negative ? result : -result;
+    }
+
+    /**
+     * Checks syntax of decimal float, accepted by Float.parseFloat(): surrounding whitespace, sign, digits with
+     * optional point, exponent and f or d suffix, NaN and Infinity. Hexadecimal floats are not accepted
+     * @param s string to check
+     * @return true if Float.parseFloat() parses string without exception
+     */
+    static boolean isFloat(String s) {
+        int end = s.length();
+        while (end > 0 && s.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        int i = 0;
+        while (i < end && s.charAt(i) <= ' ') {
+            i++;
+        }
+        if (i < end && (s.charAt(i) == '-' || s.charAt(i) == '+')) {
+            i++;
+        }
+        if (s.startsWith("NaN", i) || s.startsWith("Infinity", i)) {
+            return end - i == (s.charAt(i) == 'N' ? 3 : 8);
+        }
+        if (end > i && "fFdD".indexOf(s.charAt(end - 1)) >= 0) {
+            end--;
+        }
+        int digits = 0;
+        while (i < end && isDigit(s.charAt(i))) {
+            i++;
+            digits++;
+        }
+        if (i < end && s.charAt(i) == '.') {
+            i++;
+            while (i < end && isDigit(s.charAt(i))) {
+                i++;
+                digits++;
+            }
+        }
+        if (digits == 0) {
+            return false;
+        }
+        if (i < end && (s.charAt(i) == 'e' || s.charAt(i) == 'E')) {
+            i++;
+            if (i < end && (s.charAt(i) == '-' || s.charAt(i) == '+')) {
+                i++;
+            }
+            if (i == end) {
+                return false;
+            }
+            while (i < end && isDigit(s.charAt(i))) {
+                i++;
+            }
+        }
+        return i == end;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * @param pattern SimpleDateFormat pattern
+     * @return date format of current thread for pattern
+     */
+    static SimpleDateFormat getDateFormat(String pattern) {
+        DateFormatHolder holder = DATE_FORMATS.get();
+        if (holder == null || !holder.pattern.equals(pattern)) {
+            holder = new DateFormatHolder(pattern);
+            DATE_FORMATS.set(holder);
+        }
+        return holder.format;
+    }
+
+    private static int toTimestamp(Date date) {
+        return (int) (date.getTime() / 1000L);
+    }
+
+    private static final ValueCodec STRING = new ValueCodec() { //RT_V
+        Object encode(Object data) {
+            return (String) data;
+        }
+    };
+
+    private static final ValueCodec STRING_FILTER = new ValueCodec() { //RT_S
+        Object encode(Object data) {
+            return IQL.getStringFilter().filter((String) data);
+        }
+    };
+
+    private static final ValueCodec TEXT_FILTER = new ValueCodec() { //RT_T
+        Object encode(Object data) {
+            return IQL.getTextFilter().filter((String) data);
+        }
+    };
+
+    private static final ValueCodec INT_FROM_INTEGER = new ValueCodec() {
+        Object encode(Object data) {
+            return data;
+        }
+
+        int encodeInt(Object data) {
+            return (Integer) data;
+        }
+    };
+
+    private static final ValueCodec INT_FROM_STRING = new ValueCodec() {
+        Object encode(Object data) {
+            return encodeInt(data);
+        }
+
+        int encodeInt(Object data) {
+            return parseInt(data.toString(), 0);
+        }
+    };
+
+    private static final ValueCodec BOOLEAN_FROM_BOOLEAN = new ValueCodec() {
+        Object encode(Object data) {
+            return data;
+        }
+
+        boolean encodeBoolean(Object data) {
+            return (Boolean) data;
+        }
+    };
+
+    private static final ValueCodec BOOLEAN_FROM_STRING = new ValueCodec() {
+        Object encode(Object data) {
+            return encodeBoolean(data);
+        }
+
+        boolean encodeBoolean(Object data) {
+            return Boolean.parseBoolean(data.toString());
+        }
+    };
+
+    private static final ValueCodec DATE_FROM_DATE = new ValueCodec() {
+        Object encode(Object data) {
+            return encodeInt(data);
+        }
+
+        int encodeInt(Object data) {
+            return toTimestamp((Date) data);
+        }
+    };
+
+    private static final ValueCodec DATE_FROM_STRING = new ValueCodec() {
+        Object encode(Object data) {
+            return encodeInt(data);
+        }
+
+        int encodeInt(Object data) {
+            Date date = getDateFormat(IQL.getDateFormat()).parse((String) data, new ParsePosition(0));
+            if (date == null) {
+                throw new RowFormatException();
+            }
+            return toTimestamp(date);
+        }
+    };
+
+    private static final ValueCodec FLOAT_FROM_FLOAT = new ValueCodec() {
+        Object encode(Object data) {
+            return data;
+        }
+
+        float encodeFloat(Object data) {
+            return (Float) data;
+        }
+    };
+
+    private static final ValueCodec FLOAT_FROM_STRING = new ValueCodec() {
+        Object encode(Object data) {
+            return encodeFloat(data);
+        }
+
+        float encodeFloat(Object data) {
+            String s = data.toString();
+            if (!isFloat(s)) {
+                throw new RowFormatException();
+            }
+            return Float.parseFloat(s);
+        }
+    };
+
+    /**
+     * Used for null values of non-string types and unsupported input classes
+     */
+    private static final ValueCodec NULL_VALUE = new ValueCodec() {
+        Object encode(Object data) {
+            throw new RowFormatException();
+        }
+    };
+}
@@ -0,0 +1,290 @@
+package ru.webgrozny.iql;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write-behind buffer of single row updates, added with IQL.executeLater().
+ * Updates are kept by table and id, and later value of field replaces earlier one, so hot rows are written once per flush.
+ * Buffer is flushed by background thread every flush interval or when maxRows rows are pending, by flush() and by close().
+ * Every flush writes rows with the same set of fields by bulk update (CASE ... WHERE id IN), ordered by id,
+ * so locks are taken in the same order. Every such group is written in its own transaction. Rows of groups,
+ * that were not committed by failed flush, are returned to buffer, unless they were updated again
+ */
+public class WriteBehindBuffer implements AutoCloseable {
+    private final DataSource dataSource;
+    private final int maxRows;
+    private final ScheduledExecutorService scheduler;
+    private final Object flushLock = new Object();
+    private Map<RowKey, Map<String, PendingValue>> pending = new LinkedHashMap<>();
+    private boolean flushScheduled;
+    private boolean closed;
+    private volatile SQLException lastError;
+    private final AtomicLong updates = new AtomicLong();
+    private final AtomicLong flushedRows = new AtomicLong();
+    private final AtomicLong failedFlushes = new AtomicLong();
+
+    private static final class RowKey {
+        final String table;
+        final int id;
+
+        RowKey(String table, int id) {
+            this.table = table;
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof RowKey)) {
+                return false;
+            }
+            RowKey key = (RowKey) o;
+            return id == key.id && table.equals(key.table);
+        }
+
+        @Override
+        public int hashCode() {
+            return table.hashCode() * 31 + id;
+        }
+    }
+
+    private static final class PendingValue {
+        final DataType type;
+        final Object value;
+
+        PendingValue(DataType type, Object value) {
+            this.type = type;
+            this.value = value;
+        }
+    }
+
+    /**
+     * @param dataSource source of connections for flushes
+     * @param maxRows number of pending rows, that starts flush
+     * @param flushInterval max time between flushes
+     * @param unit unit of flushInterval
+     */
+    public WriteBehindBuffer(DataSource dataSource, int maxRows, long flushInterval, TimeUnit unit) {
+        if (maxRows < 1 || flushInterval < 1) {
+            throw new IllegalArgumentException("maxRows and flushInterval must be positive");
+        }
+        this.dataSource = dataSource;
+        this.maxRows = maxRows;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "iql-write-behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::flushQuietly, flushInterval, flushInterval, unit);
+    }
+
+    /**
+     * @param table updated table
+     * @param id id of updated row
+     * @param fields names of updated fields
+     * @param types types of fields
+     * @param values values of fields, converted to field types
+     */
+    void add(String table, int id, String[] fields, DataType[] types, Object[] values) {
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("buffer is closed");
+            }
+            Map<String, PendingValue> row = pending.computeIfAbsent(new RowKey(table, id), k -> new LinkedHashMap<>());
+            for (int i = 0; i < fields.length; i++) {
+                row.put(fields[i], new PendingValue(types[i], values[i]));
+            }
+            updates.incrementAndGet();
+            if (pending.size() < maxRows || flushScheduled) {
+                return;
+            }
+            flushScheduled = true;
+        }
+        scheduler.execute(this::flushQuietly);
+    }
+
+    /**
+     * Writes all pending updates
+     * @throws SQLException if write failed. Failed updates stay in buffer
+     */
+    public void flush() throws SQLException {
+        synchronized (flushLock) {
+            Map<RowKey, Map<String, PendingValue>> rows;
+            synchronized (this) {
+                rows = pending;
+                pending = new LinkedHashMap<>();
+                flushScheduled = false;
+            }
+            if (rows.isEmpty()) {
+                return;
+            }
+            try {
+                write(rows);
+            } catch (SQLException | RuntimeException e) {
+                failedFlushes.incrementAndGet();
+                restore(rows);
+                throw e;
+            }
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (SQLException e) {
+            lastError = e;
+        } catch (RuntimeException e) {
+            lastError = new SQLException(e);
+        }
+    }
+
+    /**
+     * Writes rows by groups of the same fields in order of first row of group, committing every group. Rows of committed groups are removed from rows
+     */
+    private void write(Map<RowKey, Map<String, PendingValue>> rows) throws SQLException {
+        Map<List<Object>, TreeMap<Integer, Map<String, PendingValue>>> groups = new LinkedHashMap<>();
+        for (Map.Entry<RowKey, Map<String, PendingValue>> row : rows.entrySet()) {
+            List<Object> shape = new ArrayList<>();
+            shape.add(row.getKey().table);
+            for (Map.Entry<String, PendingValue> field : row.getValue().entrySet()) {
+                shape.add(field.getKey());
+                shape.add(field.getValue().type);
+            }
+            groups.computeIfAbsent(shape, s -> new TreeMap<>()).put(row.getKey().id, row.getValue());
+        }
+        try (Connection con = dataSource.getConnection()) {
+            boolean autoCommit = con.getAutoCommit();
+            if (autoCommit) {
+                con.setAutoCommit(false);
+            }
+            try {
+                IQL query = new IQL(con);
+                for (Map.Entry<List<Object>, TreeMap<Integer, Map<String, PendingValue>>> group : groups.entrySet()) {
+                    List<Object> shape = group.getKey();
+                    String table = (String) shape.get(0);
+                    String[] fields = new String[(shape.size() - 1) / 2];
+                    for (int i = 0; i < fields.length; i++) {
+                        fields[i] = shape.get(i * 2 + 1) + " %" + getFlushSignature((DataType) shape.get(i * 2 + 2));
+                    }
+                    query.addTable(table).setBulkUpdateFields("id %i", fields);
+                    for (Map.Entry<Integer, Map<String, PendingValue>> row : group.getValue().entrySet()) {
+                        Object[] values = new Object[fields.length];
+                        int i = 0;
+                        for (PendingValue value : row.getValue().values()) {
+                            values[i++] = value.value;
+                        }
+                        query.updateRow(row.getKey(), values);
+                    }
+                    try {
+                        query.executeUpdateBatch(1000);
+                        con.commit();
+                    } catch (SQLException | RuntimeException e) {
+                        query.reset();
+                        try {
+                            con.rollback();
+                        } catch (SQLException rollbackError) {
+                            e.addSuppressed(rollbackError);
+                        }
+                        throw e;
+                    }
+                    for (Integer id : group.getValue().keySet()) {
+                        rows.remove(new RowKey(table, id));
+                    }
+                    flushedRows.addAndGet(group.getValue().size());
+                }
+            } finally {
+                if (autoCommit) {
+                    con.setAutoCommit(true);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return signature of type for already converted value: strings are not filtered again, dates are stored as int
+     */
+    private static char getFlushSignature(DataType type) {
+        switch (type) {
+            case RT_S:
+            case RT_T:
+            case RT_V:
+                return 'v';
+            case RT_D:
+                return 'i';
+            default:
+                return type.getSignature();
+        }
+    }
+
+    /**
+     * Returns values of failed flush to buffer. Values, updated after flush started, are kept
+     */
+    private synchronized void restore(Map<RowKey, Map<String, PendingValue>> rows) {
+        for (Map.Entry<RowKey, Map<String, PendingValue>> row : rows.entrySet()) {
+            Map<String, PendingValue> current = pending.computeIfAbsent(row.getKey(), k -> new LinkedHashMap<>());
+            for (Map.Entry<String, PendingValue> field : row.getValue().entrySet()) {
+                current.putIfAbsent(field.getKey(), field.getValue());
+            }
+        }
+    }
+
+    /**
+     * @return number of rows, waiting for flush
+     */
+    public synchronized int getPendingRows() {
+        return pending.size();
+    }
+
+    /**
+     * @return number of updates, added to buffer
+     */
+    public long getUpdates() {
+        return updates.get();
+    }
+
+    /**
+     * @return number of rows, written by flushes. Difference with getUpdates() shows coalesced updates
+     */
+    public long getFlushedRows() {
+        return flushedRows.get();
+    }
+
+    public long getFailedFlushes() {
+        return failedFlushes.get();
+    }
+
+    /**
+     * @return error of last failed background flush or null
+     */
+    public SQLException getLastError() {
+        return lastError;
+    }
+
+    /**
+     * Stops background flushes and writes pending updates
+     * @throws SQLException if final flush failed
+     */
+    @Override
+    public void close() throws SQLException {
+        synchronized (this) {
+            closed = true;
+        }
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+}
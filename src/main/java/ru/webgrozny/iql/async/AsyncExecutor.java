@@ -0,0 +1,136 @@
+package ru.webgrozny.iql.async;
+
+import ru.webgrozny.iql.CompiledQuery;
+import ru.webgrozny.iql.IQL;
+import ru.webgrozny.iql.RowMapper;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executes queries asynchronously. Every query takes its own connection from data source
+ * and runs on executor, so independent queries are executed in parallel. Query, rejected by executor,
+ * does not throw at caller: its future is failed with RejectedExecutionException.
+ * Default executor uses virtual threads, if they are supported by JVM (Java 21+), or bounded pool of platform threads
+ */
+public class AsyncExecutor implements AutoCloseable {
+    private final DataSource dataSource;
+    private final ExecutorService executor;
+    private final boolean ownExecutor;
+
+    /**
+     * @param dataSource source of connections
+     */
+    public AsyncExecutor(DataSource dataSource) {
+        this(dataSource, createDefaultExecutor(), true);
+    }
+
+    /**
+     * @param dataSource source of connections
+     * @param executor executor to run queries. Is not shut down by close()
+     */
+    public AsyncExecutor(DataSource dataSource, ExecutorService executor) {
+        this(dataSource, executor, false);
+    }
+
+    private AsyncExecutor(DataSource dataSource, ExecutorService executor, boolean ownExecutor) {
+        this.dataSource = dataSource;
+        this.executor = executor;
+        this.ownExecutor = ownExecutor;
+    }
+
+    /**
+     * @return executor with virtual thread per task, or pool of daemon threads (2 per processor) with queue of 10000 tasks
+     */
+    public static ExecutorService createDefaultExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            int threads = Runtime.getRuntime().availableProcessors() * 2;
+            AtomicInteger counter = new AtomicInteger();
+            ThreadFactory factory = r -> {
+                Thread thread = new Thread(r, "iql-async-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            };
+            return new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(10000), factory);
+        }
+    }
+
+    /**
+     * Builds query in calling thread and executes it asynchronously
+     * @param query insert, update, delete or create query
+     * @return future with update count
+     */
+    public CompletableFuture<Integer> executeAsync(IQL query) {
+        return executeAsync(query.build());
+    }
+
+    public CompletableFuture<Integer> executeAsync(CompiledQuery query) {
+        return supply(con -> query.execute(con));
+    }
+
+    /**
+     * Builds select in calling thread, executes it asynchronously and maps result rows to type
+     * @param query select query
+     * @param type class of result objects
+     * @return future with mapped objects
+     */
+    public <T> CompletableFuture<List<T>> queryAsync(IQL query, Class<T> type) {
+        return queryAsync(query.build(), type);
+    }
+
+    public <T> CompletableFuture<List<T>> queryAsync(CompiledQuery query, Class<T> type) {
+        return supply(con -> query.query(con, type));
+    }
+
+    public <T> CompletableFuture<List<T>> queryAsync(CompiledQuery query, RowMapper<T> mapper) {
+        return supply(con -> query.query(con, mapper));
+    }
+
+    private interface ConnectionCallback<R> {
+        R apply(Connection con) throws SQLException;
+    }
+
+    /**
+     * @return future of query. If executor rejects query (queue is full or executor is shut down),
+     * future is failed with RejectedExecutionException
+     */
+    private <R> CompletableFuture<R> supply(ConnectionCallback<R> callback) {
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                try (Connection con = dataSource.getConnection()) {
+                    return callback.apply(con);
+                } catch (SQLException e) {
+                    throw new CompletionException(e);
+                }
+            }, executor);
+        } catch (RejectedExecutionException e) {
+            CompletableFuture<R> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+
+    /**
+     * Shuts down default executor. Running queries are completed
+     */
+    @Override
+    public void close() {
+        if (ownExecutor) {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package ru.webgrozny.iql.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of select results, keyed by database, SQL text, bound values and result class.
+ * Database is identified by JDBC URL of connection, so the same select to other database (for example
+ * replica and primary) is cached separately. Every entry remembers tables, read by query, and is dropped,
+ * when IQL writes to one of them in the same database.
+ * Writes, made without IQL or inside transaction, that is committed later, are not seen: such data
+ * is stale until TTL expires or invalidate() is called. Statements of writes, handed out by IQL.getStatement()
+ * or CompiledQuery.prepare(), drop entries when they are handed out, not after execution, so select, cached
+ * in between, is stale until next write. Cached objects are shared and must not be modified.
+ * Entries are evicted with CLOCK policy, when number of entries or estimated size in bytes exceeds limit
+ */
+public class ResultCache {
+    private final int maxEntries;
+    private final long maxBytes;
+    private final long ttlNanos;
+    private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<String, Set<Key>> tableKeys = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> tableVersions = new ConcurrentHashMap<>();
+    private static final char SEPARATOR = '\u0000';
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private static final class Key {
+        final String database;
+        final String sql;
+        final Object[] values;
+        final Class<?> type;
+        final int hash;
+
+        Key(String database, String sql, Object[] values, Class<?> type) {
+            this.database = database;
+            this.sql = sql;
+            this.values = values;
+            this.type = type;
+            this.hash = ((database.hashCode() * 31 + sql.hashCode()) * 31 + Arrays.hashCode(values)) * 31 + type.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return hash == key.hash && type == key.type && sql.equals(key.sql) && database.equals(key.database)
+                    && Arrays.equals(values, key.values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Entry {
+        final List<?> rows;
+        final String[] tables;
+        final long expires;
+        final long size;
+        volatile boolean referenced;
+
+        Entry(List<?> rows, String[] tables, long expires, long size) {
+            this.rows = rows;
+            this.tables = tables;
+            this.expires = expires;
+            this.size = size;
+        }
+    }
+
+    /**
+     * @param maxEntries max number of cached results
+     * @param maxBytes max estimated size of cached results
+     * @param ttl time to live of result, 0 for unlimited
+     * @param unit unit of ttl
+     */
+    public ResultCache(int maxEntries, long maxBytes, long ttl, TimeUnit unit) {
+        if (maxEntries < 1 || maxBytes < 1 || ttl < 0) {
+            throw new IllegalArgumentException("maxEntries and maxBytes must be positive, ttl must not be negative");
+        }
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.ttlNanos = unit.toNanos(ttl);
+    }
+
+    /**
+     * @param database identity of database, for example JDBC URL
+     * @param sql SQL text of select
+     * @param values bound values
+     * @param type class of result objects
+     * @return copy of cached result or null
+     */
+    public <T> List<T> get(String database, String sql, Object[] values, Class<T> type) {
+        Key key = new Key(database, sql, values, type);
+        Entry entry = entries.get(key);
+        if (entry == null || (ttlNanos > 0 && System.nanoTime() - entry.expires > 0)) {
+            if (entry != null) {
+                remove(key, entry);
+            }
+            misses.incrementAndGet();
+            return null;
+        }
+        entry.referenced = true;
+        hits.incrementAndGet();
+        @SuppressWarnings("unchecked")
+        List<T> rows = (List<T>) entry.rows;
+        return new ArrayList<>(rows);
+    }
+
+    /**
+     * @param database identity of database
+     * @param tables tables, read by query
+     * @return versions of tables, that must be taken before query is executed and given to put()
+     */
+    public long[] getVersions(String database, String[] tables) {
+        long[] versions = new long[tables.length];
+        for (int i = 0; i < tables.length; i++) {
+            versions[i] = getVersion(tableOf(database, tables[i])).get();
+        }
+        return versions;
+    }
+
+    /**
+     * @return key of table of database in tableKeys and tableVersions
+     */
+    private static String tableOf(String database, String table) {
+        return database + SEPARATOR + table;
+    }
+
+    /**
+     * Caches result, if none of tables was written since versions were taken
+     * @param database identity of database
+     * @param sql SQL text of select
+     * @param values bound values
+     * @param type class of result objects
+     * @param tables tables, read by query
+     * @param versions versions of tables, taken before query was executed
+     * @param rows result
+     * @param columns number of columns in result
+     */
+    public void put(String database, String sql, Object[] values, Class<?> type, String[] tables, long[] versions, List<?> rows, int columns) {
+        long size = estimateSize(sql, values, rows.size(), columns);
+        if (size > maxBytes) {
+            return;
+        }
+        Key key = new Key(database, sql, values, type);
+        Entry entry = new Entry(Collections.unmodifiableList(new ArrayList<>(rows)), tables, System.nanoTime() + ttlNanos, size);
+        for (String table : tables) {
+            tableKeys.computeIfAbsent(tableOf(database, table), t -> ConcurrentHashMap.newKeySet()).add(key);
+        }
+        Entry previous = entries.put(key, entry);
+        bytes.addAndGet(size - (previous == null ? 0 : previous.size));
+        if (!Arrays.equals(versions, getVersions(database, tables))) {
+            remove(key, entry);
+            return;
+        }
+        while (entries.size() > maxEntries || bytes.get() > maxBytes) {
+            if (!evict()) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Drops results of all queries to database, that read table
+     * @param database identity of database
+     * @param table table name
+     */
+    public void invalidate(String database, String table) {
+        invalidateTable(tableOf(database, table));
+    }
+
+    /**
+     * Drops results of all queries, that read table, in all databases
+     * @param table table name
+     */
+    public void invalidate(String table) {
+        String suffix = SEPARATOR + table;
+        for (String databaseTable : tableVersions.keySet()) {
+            if (databaseTable.endsWith(suffix)) {
+                invalidateTable(databaseTable);
+            }
+        }
+    }
+
+    /**
+     * @param databaseTable key of table of database
+     */
+    private void invalidateTable(String databaseTable) {
+        getVersion(databaseTable).incrementAndGet();
+        Set<Key> keys = tableKeys.get(databaseTable);
+        if (keys == null) {
+            return;
+        }
+        for (Iterator<Key> it = keys.iterator(); it.hasNext(); ) {
+            Key key = it.next();
+            it.remove();
+            Entry entry = entries.get(key);
+            if (entry != null && remove(key, entry)) {
+                invalidations.incrementAndGet();
+            }
+        }
+    }
+
+    private AtomicLong getVersion(String databaseTable) {
+        return tableVersions.computeIfAbsent(databaseTable, t -> new AtomicLong());
+    }
+
+    private boolean remove(Key key, Entry entry) {
+        if (entries.remove(key, entry)) {
+            bytes.addAndGet(-entry.size);
+            for (String table : entry.tables) {
+                Set<Key> keys = tableKeys.get(tableOf(key.database, table));
+                if (keys != null && !entries.containsKey(key)) {
+                    keys.remove(key);
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private boolean evict() {
+        for (int pass = 0; pass < 2; pass++) {
+            for (Map.Entry<Key, Entry> candidate : entries.entrySet()) {
+                Entry entry = candidate.getValue();
+                if (pass == 0 && entry.referenced) {
+                    entry.referenced = false;
+                } else if (remove(candidate.getKey(), entry)) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return approximate size of entry: key, 16 bytes of header per row and 32 bytes per column value
+     */
+    private static long estimateSize(String sql, Object[] values, int rows, int columns) {
+        long size = 64 + sql.length() * 2L + values.length * 16L;
+        for (Object value : values) {
+            if (value instanceof String) {
+                size += ((String) value).length() * 2L;
+            }
+        }
+        return size + rows * (16L + columns * 32L);
+    }
+
+    public void clear() {
+        for (Map.Entry<Key, Entry> entry : entries.entrySet()) {
+            remove(entry.getKey(), entry.getValue());
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+}
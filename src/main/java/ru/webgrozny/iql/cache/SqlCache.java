@@ -0,0 +1,156 @@
+package ru.webgrozny.iql.cache;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of compiled SQL text, keyed by query shape.
+ * Lookups are lock-free; when number of shapes or total length of SQL exceeds limit, entries are evicted
+ * with a CLOCK (second chance) policy, so shapes that were hit since the last sweep survive and cold ones are dropped.
+ * SQL longer than 1/16 of the length limit, for example VALUES of a large multi-row insert, is not cached
+ */
+public class SqlCache {
+    /**
+     * Default limit of total length of cached SQL, 4M chars
+     */
+    public static final long DEFAULT_MAX_CHARS = 4L << 20;
+
+    private final int capacity;
+    private final long maxChars;
+    private final Map<Object, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong chars = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private Iterator<Map.Entry<Object, Entry>> hand;
+
+    private static class Entry {
+        final String sql;
+        volatile boolean referenced;
+
+        Entry(String sql) {
+            this.sql = sql;
+        }
+    }
+
+    /**
+     * @param capacity max number of cached shapes
+     */
+    public SqlCache(int capacity) {
+        this(capacity, DEFAULT_MAX_CHARS);
+    }
+
+    /**
+     * @param capacity max number of cached shapes
+     * @param maxChars max total length of cached SQL
+     */
+    public SqlCache(int capacity, long maxChars) {
+        if (capacity < 1 || maxChars < 1) {
+            throw new IllegalArgumentException("capacity and maxChars must be positive");
+        }
+        this.capacity = capacity;
+        this.maxChars = maxChars;
+    }
+
+    /**
+     * @param shape query shape
+     * @return compiled SQL or null, if shape is not cached
+     */
+    public String get(Object shape) {
+        Entry entry = entries.get(shape);
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        entry.referenced = true;
+        hits.incrementAndGet();
+        return entry.sql;
+    }
+
+    /**
+     * @param shape query shape
+     * @param sql compiled SQL for shape
+     */
+    public void put(Object shape, String sql) {
+        if (sql.length() > maxChars / 16) {
+            return;
+        }
+        if (entries.putIfAbsent(shape, new Entry(sql)) == null) {
+            chars.addAndGet(sql.length());
+            while (entries.size() > capacity || chars.get() > maxChars) {
+                if (!evict()) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Moves clock hand, which keeps its position between calls, until unreferenced entry is found and removed
+     * @return false if cache is empty
+     */
+    private synchronized boolean evict() {
+        for (int pass = 0; pass < 2; pass++) {
+            int remaining = entries.size();
+            while (remaining-- > 0) {
+                if (hand == null || !hand.hasNext()) {
+                    hand = entries.entrySet().iterator();
+                    if (!hand.hasNext()) {
+                        return false;
+                    }
+                }
+                Map.Entry<Object, Entry> candidate = hand.next();
+                Entry entry = candidate.getValue();
+                if (pass == 0 && entry.referenced) {
+                    entry.referenced = false;
+                } else if (entries.remove(candidate.getKey(), entry)) {
+                    chars.addAndGet(-entry.sql.length());
+                    evictions.incrementAndGet();
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public void clear() {
+        for (Map.Entry<Object, Entry> entry : entries.entrySet()) {
+            if (entries.remove(entry.getKey(), entry.getValue())) {
+                chars.addAndGet(-entry.getValue().sql.length());
+            }
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getMaxChars() {
+        return maxChars;
+    }
+
+    /**
+     * @return total length of cached SQL
+     */
+    public long getChars() {
+        return chars.get();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+}
@@ -0,0 +1,28 @@
+package ru.webgrozny.iql.dialect;
+
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Loads rows to table with native loader of database, without binding of parameters.
+ * Rows are given as UTF-8 CSV stream: fields are separated by comma, rows by \n, strings are enclosed in double quotes
+ * (with double quote doubled), booleans are 1 and 0, NULL is written as getNullToken()
+ */
+public interface BulkLoader {
+    /**
+     * @return unquoted token for NULL values
+     */
+    String getNullToken();
+
+    /**
+     * @param con connection to database
+     * @param table quoted table name
+     * @param columns quoted column names in order of CSV fields
+     * @param csv rows in CSV format. Is read to the end
+     * @return number of loaded rows
+     * @throws SQLException if load failed or is not supported by driver
+     */
+    long load(Connection con, String table, List<String> columns, InputStream csv) throws SQLException;
+}
@@ -0,0 +1,62 @@
+package ru.webgrozny.iql.dialect;
+
+import java.util.List;
+
+/**
+ * SQL syntax of database: identifier quoting, pagination, DDL, upsert clause and native bulk load.
+ * Is set globally with IQL.setDialect(). Default is MySqlDialect
+ */
+public interface Dialect {
+    /**
+     * @param identifier table, field or alias name
+     * @return quoted identifier
+     */
+    String quote(String identifier);
+
+    /**
+     * @return pagination clause with two placeholders, for example " LIMIT ?, ?"
+     */
+    String getLimitClause();
+
+    /**
+     * @return true, if offset placeholder of limit clause goes before count placeholder
+     */
+    boolean isOffsetFirst();
+
+    /**
+     * @param signature type signature letter (s, v, t, i, b, d or f)
+     * @return column type for CREATE TABLE
+     */
+    String getColumnType(char signature);
+
+    /**
+     * @param value boolean value
+     * @return literal of value for rendered SQL of getSQL(), for example "1" or "TRUE"
+     */
+    String getBooleanLiteral(boolean value);
+
+    /**
+     * @param quotedName quoted name of primary key field
+     * @return definition of auto-incremented integer primary key
+     */
+    String getPrimaryKey(String quotedName);
+
+    /**
+     * @param codepage codepage, set by IQL.setCodepage()
+     * @return options, appended to CREATE TABLE, or empty string
+     */
+    String getTableOptions(String codepage);
+
+    /**
+     * Appends clause, that turns multi-row INSERT into upsert
+     * @param sql INSERT statement
+     * @param keys quoted fields of primary or unique key
+     * @param fields quoted fields to update on conflict, may be empty
+     */
+    void appendUpsert(StringBuilder sql, List<String> keys, List<String> fields);
+
+    /**
+     * @return native bulk loader or null, if rows are loaded by batched INSERT
+     */
+    BulkLoader getBulkLoader();
+}
@@ -0,0 +1,53 @@
+package ru.webgrozny.iql.dialect;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * H2 in MySQL compatibility mode (MODE=MySQL), for local testing. SQL is the same as MySqlDialect,
+ * bulk load copies stream to temporary file and inserts rows from CSVREAD, because CSVREAD reads files only
+ */
+public class H2Dialect extends MySqlDialect {
+    @Override
+    public BulkLoader getBulkLoader() {
+        return new BulkLoader() {
+            @Override
+            public String getNullToken() {
+                return "";
+            }
+
+            @Override
+            public long load(Connection con, String table, List<String> columns, InputStream csv) throws SQLException {
+                Path file = null;
+                try {
+                    file = Files.createTempFile("iql-load", ".csv");
+                    Files.copy(csv, file, StandardCopyOption.REPLACE_EXISTING);
+                    StringBuilder header = new StringBuilder();
+                    for (int i = 0; i < columns.size(); i++) {
+                        header.append(i == 0 ? "" : ",").append("C").append(i);
+                    }
+                    try (Statement statement = con.createStatement()) {
+                        return statement.executeUpdate("INSERT INTO " + table + "(" + String.join(", ", columns) + ") SELECT * FROM CSVREAD('"
+                                + file.toString().replace("'", "''") + "', '" + header + "', 'charset=UTF-8 fieldSeparator=,')");
+                    }
+                } catch (IOException e) {
+                    throw new SQLException(e);
+                } finally {
+                    if (file != null) {
+                        try {
+                            Files.deleteIfExists(file);
+                        } catch (IOException ignored) {
+                        }
+                    }
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,100 @@
+package ru.webgrozny.iql.dialect;
+
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * MySQL and MariaDB. Bulk load uses LOAD DATA LOCAL INFILE with stream, given to MySQL Connector/J statement,
+ * so connection must be opened with allowLoadLocalInfile=true
+ */
+public class MySqlDialect implements Dialect {
+    private static final String STATEMENT_CLASS = "com.mysql.cj.jdbc.JdbcStatement";
+
+    @Override
+    public String quote(String identifier) {
+        return "`" + identifier + "`";
+    }
+
+    @Override
+    public String getLimitClause() {
+        return " LIMIT ?, ?";
+    }
+
+    @Override
+    public boolean isOffsetFirst() {
+        return true;
+    }
+
+    @Override
+    public String getColumnType(char signature) {
+        switch (signature) {
+            case 'b':
+                return "BOOL";
+            case 'd':
+            case 'i':
+                return "INTEGER";
+            case 't':
+                return "TEXT";
+            case 'f':
+                return "FLOAT";
+            default:
+                return "VARCHAR(255)";
+        }
+    }
+
+    @Override
+    public String getBooleanLiteral(boolean value) {
+        return value ? "1" : "0";
+    }
+
+    @Override
+    public String getPrimaryKey(String quotedName) {
+        return quotedName + " INTEGER PRIMARY KEY AUTO_INCREMENT";
+    }
+
+    @Override
+    public String getTableOptions(String codepage) {
+        return " DEFAULT CHARSET=" + codepage;
+    }
+
+    @Override
+    public void appendUpsert(StringBuilder sql, List<String> keys, List<String> fields) {
+        sql.append(" ON DUPLICATE KEY UPDATE");
+        if (fields.isEmpty()) {
+            sql.append(' ').append(keys.get(0)).append(" = ").append(keys.get(0));
+            return;
+        }
+        for (int i = 0; i < fields.size(); i++) {
+            sql.append(i == 0 ? " " : ", ").append(fields.get(i)).append(" = VALUES(").append(fields.get(i)).append(')');
+        }
+    }
+
+    @Override
+    public BulkLoader getBulkLoader() {
+        return new BulkLoader() {
+            @Override
+            public String getNullToken() {
+                return "NULL";
+            }
+
+            @Override
+            public long load(Connection con, String table, List<String> columns, InputStream csv) throws SQLException {
+                try (Statement statement = con.createStatement()) {
+                    try {
+                        Class<?> type = Class.forName(STATEMENT_CLASS);
+                        type.getMethod("setLocalInfileInputStream", InputStream.class).invoke(statement.unwrap(type), csv);
+                    } catch (ReflectiveOperationException e) {
+                        throw new SQLFeatureNotSupportedException("LOAD DATA LOCAL INFILE needs MySQL Connector/J", e);
+                    }
+                    return statement.executeUpdate("LOAD DATA LOCAL INFILE 'stream' INTO TABLE " + table
+                            + " CHARACTER SET utf8mb4 FIELDS TERMINATED BY ',' OPTIONALLY ENCLOSED BY '\"' ESCAPED BY ''"
+                            + " LINES TERMINATED BY '\\n' (" + String.join(", ", columns) + ")");
+                }
+            }
+        };
+    }
+}
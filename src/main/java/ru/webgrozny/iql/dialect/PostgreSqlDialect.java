@@ -0,0 +1,103 @@
+package ru.webgrozny.iql.dialect;
+
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.List;
+
+/**
+ * PostgreSQL. Bulk load uses COPY FROM STDIN through CopyManager of PostgreSQL JDBC driver
+ */
+public class PostgreSqlDialect implements Dialect {
+    private static final String CONNECTION_CLASS = "org.postgresql.PGConnection";
+    private static final String COPY_MANAGER_CLASS = "org.postgresql.copy.CopyManager";
+
+    @Override
+    public String quote(String identifier) {
+        return "\"" + identifier + "\"";
+    }
+
+    @Override
+    public String getLimitClause() {
+        return " LIMIT ? OFFSET ?";
+    }
+
+    @Override
+    public boolean isOffsetFirst() {
+        return false;
+    }
+
+    @Override
+    public String getColumnType(char signature) {
+        switch (signature) {
+            case 'b':
+                return "BOOLEAN";
+            case 'd':
+            case 'i':
+                return "INTEGER";
+            case 't':
+                return "TEXT";
+            case 'f':
+                return "REAL";
+            default:
+                return "VARCHAR(255)";
+        }
+    }
+
+    @Override
+    public String getBooleanLiteral(boolean value) {
+        return value ? "TRUE" : "FALSE";
+    }
+
+    @Override
+    public String getPrimaryKey(String quotedName) {
+        return quotedName + " SERIAL PRIMARY KEY";
+    }
+
+    @Override
+    public String getTableOptions(String codepage) {
+        return "";
+    }
+
+    @Override
+    public void appendUpsert(StringBuilder sql, List<String> keys, List<String> fields) {
+        sql.append(" ON CONFLICT (").append(String.join(", ", keys)).append(')');
+        if (fields.isEmpty()) {
+            sql.append(" DO NOTHING");
+            return;
+        }
+        sql.append(" DO UPDATE SET");
+        for (int i = 0; i < fields.size(); i++) {
+            sql.append(i == 0 ? " " : ", ").append(fields.get(i)).append(" = EXCLUDED.").append(fields.get(i));
+        }
+    }
+
+    @Override
+    public BulkLoader getBulkLoader() {
+        return new BulkLoader() {
+            @Override
+            public String getNullToken() {
+                return "";
+            }
+
+            @Override
+            public long load(Connection con, String table, List<String> columns, InputStream csv) throws SQLException {
+                String sql = "COPY " + table + " (" + String.join(", ", columns) + ") FROM STDIN WITH (FORMAT csv)";
+                try {
+                    Class<?> connectionType = Class.forName(CONNECTION_CLASS);
+                    Class<?> copyManagerType = Class.forName(COPY_MANAGER_CLASS);
+                    Object copyManager = connectionType.getMethod("getCopyAPI").invoke(con.unwrap(connectionType));
+                    return (Long) copyManagerType.getMethod("copyIn", String.class, InputStream.class).invoke(copyManager, sql, csv);
+                } catch (java.lang.reflect.InvocationTargetException e) {
+                    if (e.getCause() instanceof SQLException) {
+                        throw (SQLException) e.getCause();
+                    }
+                    throw new SQLException(e.getCause());
+                } catch (ReflectiveOperationException e) {
+                    throw new SQLFeatureNotSupportedException("COPY FROM STDIN needs PostgreSQL JDBC driver", e);
+                }
+            }
+        };
+    }
+}
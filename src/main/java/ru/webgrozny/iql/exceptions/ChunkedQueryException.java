@@ -0,0 +1,10 @@
+package ru.webgrozny.iql.exceptions;
+
+public class ChunkedQueryException extends RuntimeException {
+    public ChunkedQueryException() {
+    }
+
+    public ChunkedQueryException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,4 @@
+package ru.webgrozny.iql.exceptions;
+
+public class ConcurrencyLimitException extends RuntimeException {
+}
@@ -0,0 +1,7 @@
+package ru.webgrozny.iql.exceptions;
+
+public class QueryExecutionException extends RuntimeException {
+    public QueryExecutionException(Throwable cause) {
+        super(cause);
+    }
+}
@@ -0,0 +1,66 @@
+package ru.webgrozny.iql.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of latencies with power of two buckets in nanoseconds: bucket i counts latencies from 2^i to 2^(i+1).
+ * Counters are striped, so concurrent recording from many threads does not contend
+ */
+class LatencyHistogram {
+    private static final int BUCKETS = 64;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @param nanos latency in nanoseconds
+     */
+    void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        int bucket = nanos == 0 ? 0 : BUCKETS - 1 - Long.numberOfLeadingZeros(nanos);
+        buckets[bucket].increment();
+        count.increment();
+        total.add(nanos);
+        max.accumulate(nanos);
+    }
+
+    LatencySnapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        long sum = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+            sum += counts[i];
+        }
+        return new LatencySnapshot(count.sum(), total.sum(), max.get(),
+                percentile(counts, sum, 0.5), percentile(counts, sum, 0.9), percentile(counts, sum, 0.99));
+    }
+
+    /**
+     * @return upper bound of bucket, that contains percentile
+     */
+    private static long percentile(long[] counts, long sum, double percentile) {
+        if (sum == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(sum * percentile);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return i >= 62 ? Long.MAX_VALUE : (1L << (i + 1)) - 1;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+}
@@ -0,0 +1,8 @@
+package ru.webgrozny.iql.metrics;
+
+public enum Phase {
+    BUILD, //compiling SQL and collecting values
+    PREPARE, //Connection.prepareStatement()
+    BIND, //setting values to statement
+    EXECUTE //executing statement
+}
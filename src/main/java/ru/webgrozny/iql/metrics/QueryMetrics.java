@@ -0,0 +1,138 @@
+package ru.webgrozny.iql.metrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Latency histograms, row and error counts by query fingerprint. Fingerprint is SQL text with placeholders,
+ * where lists of placeholders and rows of multi-row insert are collapsed, so queries of the same shape are counted together.
+ * Recording is lock-free
+ */
+public class QueryMetrics implements QueryMetricsMXBean {
+    private static final int MAX_CACHED_SQL = 4096;
+
+    private final ConcurrentMap<String, QueryRecorder> recorders = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, QueryRecorder> recordersBySql = new ConcurrentHashMap<>();
+    private final int maxFingerprints;
+
+    public QueryMetrics() {
+        this(1024);
+    }
+
+    /**
+     * @param maxFingerprints max number of fingerprints. Queries with other fingerprints are recorded as "other"
+     */
+    public QueryMetrics(int maxFingerprints) {
+        this.maxFingerprints = maxFingerprints;
+    }
+
+    /**
+     * @param sql SQL text with placeholders
+     * @return recorder for fingerprint of SQL
+     */
+    public QueryRecorder forSql(String sql) {
+        QueryRecorder recorder = recordersBySql.get(sql);
+        if (recorder == null) {
+            String fingerprint = fingerprint(sql);
+            recorder = recorders.get(fingerprint);
+            if (recorder == null) {
+                if (recorders.size() >= maxFingerprints) {
+                    fingerprint = "other";
+                }
+                recorder = recorders.computeIfAbsent(fingerprint, QueryRecorder::new);
+            }
+            if (recordersBySql.size() < MAX_CACHED_SQL) {
+                recordersBySql.putIfAbsent(sql, recorder);
+            }
+        }
+        return recorder;
+    }
+
+    /**
+     * Collapses lists of placeholders to "?..." and rows of VALUES to first row
+     * @param sql SQL text with placeholders
+     * @return normalized SQL
+     */
+    public static String fingerprint(String sql) {
+        StringBuilder ret = new StringBuilder(sql.length());
+        int length = sql.length();
+        for (int i = 0; i < length; i++) {
+            char c = sql.charAt(i);
+            ret.append(c);
+            if (c == '?') {
+                boolean list = false;
+                while (sql.startsWith(", ?", i + 1)) {
+                    i += 3;
+                    list = true;
+                }
+                if (list) {
+                    ret.append("...");
+                }
+            }
+        }
+        String collapsed = ret.toString();
+        int values = collapsed.indexOf(" VALUES (");
+        if (values != -1) {
+            int rowEnd = collapsed.indexOf(')', values);
+            int rowsEnd = rowEnd;
+            String nextRow = ", " + collapsed.substring(values + 8, rowEnd + 1);
+            while (collapsed.startsWith(nextRow, rowsEnd + 1)) {
+                rowsEnd += nextRow.length();
+            }
+            if (rowsEnd != rowEnd) {
+                collapsed = collapsed.substring(0, rowEnd + 1) + ", ..." + collapsed.substring(rowsEnd + 1);
+            }
+        }
+        return collapsed;
+    }
+
+    @Override
+    public List<QueryStats> getQueries() {
+        List<QueryStats> ret = new ArrayList<>();
+        for (QueryRecorder recorder : recorders.values()) {
+            ret.add(recorder.snapshot());
+        }
+        return ret;
+    }
+
+    /**
+     * @param sql SQL text with placeholders
+     * @return statistics for fingerprint of SQL or null
+     */
+    public QueryStats getQuery(String sql) {
+        QueryRecorder recorder = recorders.get(fingerprint(sql));
+        return recorder == null ? null : recorder.snapshot();
+    }
+
+    @Override
+    public int getFingerprintCount() {
+        return recorders.size();
+    }
+
+    @Override
+    public void reset() {
+        recordersBySql.clear();
+        recorders.clear();
+    }
+
+    /**
+     * Registers metrics in platform MBean server as ru.webgrozny.iql:type=QueryMetrics
+     * @return registered name
+     * @throws JMException if registration failed
+     */
+    public ObjectName register() throws JMException {
+        return register(new ObjectName("ru.webgrozny.iql:type=QueryMetrics"));
+    }
+
+    public ObjectName register(ObjectName name) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        server.registerMBean(this, name);
+        return name;
+    }
+}
@@ -0,0 +1,14 @@
+package ru.webgrozny.iql.metrics;
+
+import java.util.List;
+
+public interface QueryMetricsMXBean {
+    /**
+     * @return statistics for all recorded query fingerprints
+     */
+    List<QueryStats> getQueries();
+
+    int getFingerprintCount();
+
+    void reset();
+}
@@ -0,0 +1,46 @@
+package ru.webgrozny.iql.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Recorder of statistics for one query fingerprint
+ */
+public class QueryRecorder {
+    private final String fingerprint;
+    private final LatencyHistogram[] histograms = new LatencyHistogram[Phase.values().length];
+    private final LongAdder rows = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    QueryRecorder(String fingerprint) {
+        this.fingerprint = fingerprint;
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * @param phase phase of query
+     * @param nanos duration of phase in nanoseconds
+     */
+    public void record(Phase phase, long nanos) {
+        histograms[phase.ordinal()].record(nanos);
+    }
+
+    public void recordRows(long count) {
+        rows.add(count);
+    }
+
+    public void recordError() {
+        errors.increment();
+    }
+
+    QueryStats snapshot() {
+        return new QueryStats(fingerprint, histograms[Phase.BUILD.ordinal()].snapshot(),
+                histograms[Phase.PREPARE.ordinal()].snapshot(), histograms[Phase.BIND.ordinal()].snapshot(),
+                histograms[Phase.EXECUTE.ordinal()].snapshot(), rows.sum(), errors.sum());
+    }
+}
@@ -0,0 +1,56 @@
+package ru.webgrozny.iql.metrics;
+
+/**
+ * Snapshot of statistics for one query fingerprint
+ */
+public class QueryStats {
+    private final String fingerprint;
+    private final LatencySnapshot build;
+    private final LatencySnapshot prepare;
+    private final LatencySnapshot bind;
+    private final LatencySnapshot execute;
+    private final long rows;
+    private final long errors;
+
+    public QueryStats(String fingerprint, LatencySnapshot build, LatencySnapshot prepare, LatencySnapshot bind,
+                      LatencySnapshot execute, long rows, long errors) {
+        this.fingerprint = fingerprint;
+        this.build = build;
+        this.prepare = prepare;
+        this.bind = bind;
+        this.execute = execute;
+        this.rows = rows;
+        this.errors = errors;
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    public LatencySnapshot getBuild() {
+        return build;
+    }
+
+    public LatencySnapshot getPrepare() {
+        return prepare;
+    }
+
+    public LatencySnapshot getBind() {
+        return bind;
+    }
+
+    public LatencySnapshot getExecute() {
+        return execute;
+    }
+
+    /**
+     * @return rows, returned by selects or affected by updates
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+}
@@ -0,0 +1,92 @@
+package ru.webgrozny.iql.metrics;
+
+/**
+ * Query, which execution took more than threshold of SlowQueryLog, with its values and plan
+ */
+public class SlowQuery {
+    private final long time;
+    private final long nanos;
+    private final String sql;
+    private final String rendered;
+    private final Object[] parameters;
+    private final int parameterCount;
+    private volatile String plan;
+    private volatile String explainError;
+
+    SlowQuery(long time, long nanos, String sql, String rendered, Object[] parameters, int parameterCount) {
+        this.time = time;
+        this.nanos = nanos;
+        this.sql = sql;
+        this.rendered = rendered;
+        this.parameters = parameters;
+        this.parameterCount = parameterCount;
+    }
+
+    /**
+     * @return time of execution end in milliseconds since epoch
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * @return duration of execution in nanoseconds
+     */
+    public long getNanos() {
+        return nanos;
+    }
+
+    /**
+     * @return SQL text with placeholders
+     */
+    public String getSql() {
+        return sql;
+    }
+
+    public String getFingerprint() {
+        return QueryMetrics.fingerprint(sql);
+    }
+
+    /**
+     * @return SQL text with values rendered into placeholders, may be truncated
+     */
+    public String getRendered() {
+        return rendered;
+    }
+
+    /**
+     * @return bound values, may be only first of all values
+     */
+    public Object[] getParameters() {
+        return parameters.clone();
+    }
+
+    /**
+     * @return number of all bound values
+     */
+    public int getParameterCount() {
+        return parameterCount;
+    }
+
+    /**
+     * @return result of EXPLAIN, one line per row with columns separated by tab, or null if it was not taken
+     */
+    public String getPlan() {
+        return plan;
+    }
+
+    /**
+     * @return message of error of EXPLAIN or null
+     */
+    public String getExplainError() {
+        return explainError;
+    }
+
+    void setPlan(String plan) {
+        this.plan = plan;
+    }
+
+    void setExplainError(String explainError) {
+        this.explainError = explainError;
+    }
+}
@@ -0,0 +1,201 @@
+package ru.webgrozny.iql.metrics;
+
+import ru.webgrozny.iql.CompiledQuery;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Log of queries, which execution took more than threshold. Keeps last queries in ring buffer with rendered SQL
+ * and bound values. Plans of logged queries are taken by EXPLAIN with the same values on separate connection
+ * in background thread, not more often than explain interval. Queries, logged while waiting, stay without plan
+ */
+public class SlowQueryLog implements AutoCloseable {
+    private static final int MAX_PARAMETERS = 256;
+    private static final int MAX_RENDERED_LENGTH = 8192;
+    private static final int MAX_PLAN_ROWS = 1000;
+
+    private final DataSource explainSource;
+    private final long thresholdNanos;
+    private final SlowQuery[] entries;
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong nextExplain = new AtomicLong(Long.MIN_VALUE);
+    private final AtomicLong explained = new AtomicLong();
+    private final ThreadPoolExecutor executor;
+    private volatile long explainIntervalNanos = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * Creates log of 256 last queries
+     * @param explainSource source of connections for EXPLAIN or null to log queries without plans
+     * @param threshold min duration of logged execution
+     */
+    public SlowQueryLog(DataSource explainSource, long threshold, TimeUnit unit) {
+        this(explainSource, threshold, unit, 256);
+    }
+
+    /**
+     * @param explainSource source of connections for EXPLAIN or null to log queries without plans
+     * @param threshold min duration of logged execution
+     * @param capacity number of last queries to keep
+     */
+    public SlowQueryLog(DataSource explainSource, long threshold, TimeUnit unit, int capacity) {
+        this.explainSource = explainSource;
+        this.thresholdNanos = unit.toNanos(threshold);
+        this.entries = new SlowQuery[Math.max(capacity, 1)];
+        this.executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(1), r -> {
+            Thread thread = new Thread(r, "iql-explain");
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.DiscardPolicy());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @param interval min interval between two EXPLAIN queries (Default: 1 second)
+     */
+    public void setExplainInterval(long interval, TimeUnit unit) {
+        explainIntervalNanos = unit.toNanos(interval);
+    }
+
+    /**
+     * @param nanos duration of execution
+     * @return true if query with this duration must be logged
+     */
+    public boolean isSlow(long nanos) {
+        return nanos >= thresholdNanos;
+    }
+
+    /**
+     * Logs query, if it is slow
+     * @param query executed query
+     * @param nanos duration of execution
+     * @param explainable true if EXPLAIN can be taken for query
+     */
+    public void record(CompiledQuery query, long nanos, boolean explainable) {
+        if (!isSlow(nanos)) {
+            return;
+        }
+        int count = query.getParameterCount();
+        Object[] parameters = new Object[Math.min(count, MAX_PARAMETERS)];
+        for (int i = 0; i < parameters.length; i++) {
+            parameters[i] = query.getValue(i + 1);
+        }
+        String rendered = query.render(MAX_RENDERED_LENGTH + 1);
+        if (rendered.length() > MAX_RENDERED_LENGTH) {
+            rendered = rendered.substring(0, MAX_RENDERED_LENGTH) + "...";
+        }
+        SlowQuery entry = new SlowQuery(System.currentTimeMillis(), nanos, query.getSql(), rendered, parameters, count);
+        entries[(int) (written.getAndIncrement() % entries.length)] = entry;
+        if (explainable && explainSource != null && acquireExplain()) {
+            executor.execute(() -> explain(query, entry));
+        }
+    }
+
+    /**
+     * @return true if explain interval passed since last EXPLAIN
+     */
+    private boolean acquireExplain() {
+        long now = System.nanoTime();
+        long next = nextExplain.get();
+        return (next == Long.MIN_VALUE || now - next >= 0) && nextExplain.compareAndSet(next, now + explainIntervalNanos);
+    }
+
+    private void explain(CompiledQuery query, SlowQuery entry) {
+        try (Connection con = explainSource.getConnection();
+             PreparedStatement ps = query.prepareExplain(con);
+             ResultSet rs = ps.executeQuery()) {
+            ResultSetMetaData meta = rs.getMetaData();
+            StringBuilder plan = new StringBuilder();
+            for (int i = 1; i <= meta.getColumnCount(); i++) {
+                plan.append(i > 1 ? "\t" : "").append(meta.getColumnLabel(i));
+            }
+            for (int row = 0; row < MAX_PLAN_ROWS && rs.next(); row++) {
+                plan.append('\n');
+                for (int i = 1; i <= meta.getColumnCount(); i++) {
+                    plan.append(i > 1 ? "\t" : "").append(rs.getString(i));
+                }
+            }
+            entry.setPlan(plan.toString());
+            explained.incrementAndGet();
+        } catch (SQLException | RuntimeException e) {
+            entry.setExplainError(String.valueOf(e.getMessage()));
+        }
+    }
+
+    /**
+     * @return logged queries from oldest to newest
+     */
+    public List<SlowQuery> getEntries() {
+        long end = written.get();
+        List<SlowQuery> ret = new ArrayList<>();
+        for (long i = Math.max(0, end - entries.length); i < end; i++) {
+            SlowQuery entry = entries[(int) (i % entries.length)];
+            if (entry != null) {
+                ret.add(entry);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return number of logged queries, including ones dropped from buffer
+     */
+    public long getLoggedCount() {
+        return written.get();
+    }
+
+    /**
+     * @return number of successfully taken plans
+     */
+    public long getExplainedCount() {
+        return explained.get();
+    }
+
+    /**
+     * Writes logged queries from oldest to newest as text: duration, rendered SQL and plan
+     * @param out destination
+     * @throws IOException if out failed
+     */
+    public void dump(Appendable out) throws IOException {
+        for (SlowQuery entry : getEntries()) {
+            out.append("-- ").append(Long.toString(TimeUnit.NANOSECONDS.toMillis(entry.getNanos()))).append(" ms at ")
+                    .append(Long.toString(entry.getTime())).append('\n');
+            out.append(entry.getRendered()).append('\n');
+            if (entry.getPlan() != null) {
+                out.append(entry.getPlan()).append('\n');
+            } else if (entry.getExplainError() != null) {
+                out.append("EXPLAIN failed: ").append(entry.getExplainError()).append('\n');
+            }
+            out.append('\n');
+        }
+    }
+
+    public String dump() {
+        StringBuilder ret = new StringBuilder();
+        try {
+            dump(ret);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return ret.toString();
+    }
+
+    /**
+     * Stops background thread. Queries are still logged, but not explained
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,69 @@
+package ru.webgrozny.iql.pool;
+
+import java.sql.PreparedStatement;
+
+/**
+ * Statement, leased from StatementPool. Closing lease returns statement to pool instead of closing it
+ */
+public class LeasedStatement implements AutoCloseable {
+    private final StatementPool pool;
+    private final String sql;
+    private final int statementConstant;
+    private final PreparedStatement statement;
+    private final boolean reused;
+    private boolean released;
+    private Runnable onRelease;
+
+    LeasedStatement(StatementPool pool, String sql, int statementConstant, PreparedStatement statement, boolean reused) {
+        this.pool = pool;
+        this.sql = sql;
+        this.statementConstant = statementConstant;
+        this.statement = statement;
+        this.reused = reused;
+    }
+
+    /**
+     * @return leased statement. Must not be closed by caller
+     */
+    public PreparedStatement getStatement() {
+        return statement;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    int getStatementConstant() {
+        return statementConstant;
+    }
+
+    /**
+     * @return true, if statement was taken from pool, false if it was prepared for this lease
+     */
+    public boolean isReused() {
+        return reused;
+    }
+
+    /**
+     * @param onRelease action, run after statement is returned to pool, or null
+     * @return this
+     */
+    public LeasedStatement setOnRelease(Runnable onRelease) {
+        this.onRelease = onRelease;
+        return this;
+    }
+
+    /**
+     * Returns statement to pool
+     */
+    @Override
+    public void close() {
+        if (!released) {
+            released = true;
+            pool.release(this);
+            if (onRelease != null) {
+                onRelease.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package ru.webgrozny.iql.pool;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of prepared statements for one connection, keyed by SQL text and statement constant.
+ * Statements are leased, and after close() of lease returned to pool with cleared parameters.
+ * Idle statements are evicted in least recently used order, when pool is full.
+ * Pool must be closed before connection is closed or returned to connection pool.
+ */
+public class StatementPool implements AutoCloseable {
+    static final int NO_STATEMENT_CONSTANT = Integer.MIN_VALUE;
+
+    private final Connection con;
+    private final int maxIdle;
+    private final Map<Key, Deque<PreparedStatement>> idle = new LinkedHashMap<>(16, 0.75f, true);
+    private int idleCount;
+    private int leasedCount;
+    private boolean closed;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private static class Key {
+        final String sql;
+        final int statementConstant;
+
+        Key(String sql, int statementConstant) {
+            this.sql = sql;
+            this.statementConstant = statementConstant;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return statementConstant == key.statementConstant && sql.equals(key.sql);
+        }
+
+        @Override
+        public int hashCode() {
+            return sql.hashCode() * 31 + statementConstant;
+        }
+    }
+
+    /**
+     * @param con connection, which statements are prepared on
+     * @param maxIdle max number of idle statements kept in pool
+     */
+    public StatementPool(Connection con, int maxIdle) {
+        if (maxIdle < 1) {
+            throw new IllegalArgumentException("maxIdle must be positive");
+        }
+        this.con = con;
+        this.maxIdle = maxIdle;
+    }
+
+    public Connection getConnection() {
+        return con;
+    }
+
+    /**
+     * @param sql SQL text
+     * @return leased statement, prepared for SQL
+     * @throws SQLException if statement can not be prepared
+     */
+    public LeasedStatement lease(String sql) throws SQLException {
+        return lease(new Key(sql, NO_STATEMENT_CONSTANT));
+    }
+
+    /**
+     * @param sql SQL text
+     * @param statementConstant constant for Connection.prepareStatement(String, int), for example Statement.RETURN_GENERATED_KEYS
+     * @return leased statement, prepared for SQL
+     * @throws SQLException if statement can not be prepared
+     */
+    public LeasedStatement lease(String sql, int statementConstant) throws SQLException {
+        return lease(new Key(sql, statementConstant));
+    }
+
+    private LeasedStatement lease(Key key) throws SQLException {
+        synchronized (this) {
+            if (closed) {
+                throw new SQLException("Statement pool is closed");
+            }
+            Deque<PreparedStatement> statements = idle.get(key);
+            if (statements != null && !statements.isEmpty()) {
+                PreparedStatement ps = statements.pollFirst();
+                idleCount--;
+                leasedCount++;
+                hits.incrementAndGet();
+                return new LeasedStatement(this, key.sql, key.statementConstant, ps, true);
+            }
+            leasedCount++;
+        }
+        misses.incrementAndGet();
+        try {
+            PreparedStatement ps = key.statementConstant == NO_STATEMENT_CONSTANT ? con.prepareStatement(key.sql) : con.prepareStatement(key.sql, key.statementConstant);
+            return new LeasedStatement(this, key.sql, key.statementConstant, ps, false);
+        } catch (SQLException e) {
+            synchronized (this) {
+                leasedCount--;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Returns statement to pool. Called by LeasedStatement.close()
+     */
+    void release(LeasedStatement leased) {
+        PreparedStatement ps = leased.getStatement();
+        boolean keep;
+        synchronized (this) {
+            leasedCount--;
+            keep = !closed;
+        }
+        if (keep) {
+            try {
+                keep = !ps.isClosed();
+                if (keep) {
+                    ps.clearParameters();
+                }
+            } catch (SQLException e) {
+                keep = false;
+            }
+        }
+        if (keep) {
+            synchronized (this) {
+                if (!closed) {
+                    idle.computeIfAbsent(new Key(leased.getSql(), leased.getStatementConstant()), k -> new ArrayDeque<>()).addFirst(ps);
+                    idleCount++;
+                    while (idleCount > maxIdle) {
+                        evictEldest();
+                    }
+                    return;
+                }
+            }
+        }
+        closeQuietly(ps);
+    }
+
+    private void evictEldest() {
+        Iterator<Deque<PreparedStatement>> it = idle.values().iterator();
+        while (it.hasNext()) {
+            Deque<PreparedStatement> statements = it.next();
+            PreparedStatement ps = statements.pollLast();
+            if (statements.isEmpty()) {
+                it.remove();
+            }
+            if (ps != null) {
+                idleCount--;
+                evictions.incrementAndGet();
+                closeQuietly(ps);
+                return;
+            }
+        }
+    }
+
+    private static void closeQuietly(PreparedStatement ps) {
+        try {
+            ps.close();
+        } catch (SQLException ignored) {
+        }
+    }
+
+    /**
+     * Closes all idle statements. Leased statements will be closed, when their lease is closed
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            for (Deque<PreparedStatement> statements : idle.values()) {
+                for (PreparedStatement ps : statements) {
+                    closeQuietly(ps);
+                }
+            }
+            idle.clear();
+            idleCount = 0;
+        }
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    public synchronized int getIdleCount() {
+        return idleCount;
+    }
+
+    public synchronized int getLeasedCount() {
+        return leasedCount;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+}
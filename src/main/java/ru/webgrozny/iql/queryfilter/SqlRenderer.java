@@ -0,0 +1,143 @@
+package ru.webgrozny.iql.queryfilter;
+
+import ru.webgrozny.iql.dialect.Dialect;
+
+/**
+ * Renders values into placeholders of SQL in one pass.
+ * Every value is written to the next placeholder after the previous one, so SQL text is scanned only once
+ */
+public class SqlRenderer {
+    private final String sql;
+    private final StringBuilder out;
+    private final String trueLiteral;
+    private final String falseLiteral;
+    private int position;
+    private int limit = Integer.MAX_VALUE;
+
+    public SqlRenderer(String sql) {
+        this(sql, sql.length() + 16);
+    }
+
+    /**
+     * Booleans are rendered as 1 and 0
+     * @param sql SQL with ? placeholders
+     * @param capacity expected length of rendered SQL
+     */
+    public SqlRenderer(String sql, int capacity) {
+        this.sql = sql;
+        this.out = new StringBuilder(capacity);
+        this.trueLiteral = "1";
+        this.falseLiteral = "0";
+    }
+
+    /**
+     * @param sql SQL with ? placeholders
+     * @param capacity expected length of rendered SQL
+     * @param dialect dialect, which gives literals of booleans
+     */
+    public SqlRenderer(String sql, int capacity, Dialect dialect) {
+        this.sql = sql;
+        this.out = new StringBuilder(capacity);
+        this.trueLiteral = dialect.getBooleanLiteral(true);
+        this.falseLiteral = dialect.getBooleanLiteral(false);
+    }
+
+    /**
+     * Copies SQL up to next placeholder and skips it
+     */
+    private void nextPlaceholder() {
+        int pos = sql.indexOf('?', position);
+        if (pos == -1) {
+            throw new IllegalStateException("No placeholder left in " + sql);
+        }
+        out.append(sql, position, pos);
+        position = pos + 1;
+    }
+
+    /**
+     * @param limit max length of rendered SQL. Values, set after it is reached, may be skipped by caller, see isFull()
+     * @return this
+     */
+    public SqlRenderer setLimit(int limit) {
+        this.limit = limit;
+        return this;
+    }
+
+    /**
+     * @return true if rendered SQL reached limit and next values are not needed
+     */
+    public boolean isFull() {
+        return out.length() >= limit;
+    }
+
+    public SqlRenderer setInt(int val) {
+        nextPlaceholder();
+        out.append(val);
+        return this;
+    }
+
+    public SqlRenderer setString(String str) {
+        nextPlaceholder();
+        if (str == null) {
+            out.append("NULL");
+        } else {
+            out.append('\'');
+            appendEscaped(str);
+            out.append('\'');
+        }
+        return this;
+    }
+
+    public SqlRenderer setBoolean(boolean boolVal) {
+        nextPlaceholder();
+        out.append(boolVal ? trueLiteral : falseLiteral);
+        return this;
+    }
+
+    public SqlRenderer setFloat(float floatVal) {
+        nextPlaceholder();
+        out.append(floatVal);
+        return this;
+    }
+
+    /**
+     * Escapes backslashes and quotes
+     */
+    private void appendEscaped(String str) {
+        int start = 0;
+        int length = str.length();
+        for (int i = 0; i < length; i++) {
+            char c = str.charAt(i);
+            if (c == '\\' || c == '\'') {
+                out.append(str, start, i).append('\\');
+                start = i;
+            }
+        }
+        out.append(str, start, length);
+    }
+
+    /**
+     * @param str string value
+     * @return length of rendered value without escapes
+     */
+    public static int estimateLength(String str) {
+        return str == null ? 4 : str.length() + 2;
+    }
+
+    /**
+     * @return rendered SQL, cut to limit
+     */
+    public String toString() {
+        if (position == 0) {
+            return sql.length() > limit ? sql.substring(0, limit) : sql;
+        }
+        if (out.length() >= limit) {
+            return out.substring(0, limit);
+        }
+        int end = (int) Math.min(sql.length(), (long) position + limit - out.length());
+        if (end == position) {
+            return out.toString();
+        }
+        return new StringBuilder(out.length() + end - position).append(out).append(sql, position, end).toString();
+    }
+}
@@ -0,0 +1,90 @@
+package ru.webgrozny.iql;
+
+import org.junit.Test;
+import ru.webgrozny.iql.dialect.MySqlDialect;
+import ru.webgrozny.iql.dialect.PostgreSqlDialect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CompiledQueryTest {
+    @Test
+    public void builtQueryIsNotChangedByNextBuilds() {
+        IQL iql = new IQL();
+        CompiledQuery first = iql.addTable("items").select("id %i").where("name %s", IQL.EQUAL, "a").build();
+        String sql = first.getSql();
+        String rendered = first.render();
+        for (int i = 0; i < 3; i++) {
+            iql.addTable("items").select("id %i").where("name %s", IQL.EQUAL, "b" + i).build();
+            iql.addTable("items").select("id %i").where("name %i", IQL.EQUAL, i).build();
+        }
+        assertEquals(sql, first.getSql());
+        assertEquals(rendered, first.render());
+        assertEquals("a", first.getValue(1));
+    }
+
+    @Test
+    public void queryOfTheSameShapeWithOtherTypesHasOwnTypes() {
+        IQL iql = new IQL();
+        CompiledQuery strings = iql.addTable("items").select("id %i").where("name %s", IQL.EQUAL, "7").build();
+        CompiledQuery ints = iql.addTable("items").select("id %i").where("name %i", IQL.EQUAL, 7).build();
+        assertEquals(strings.getSql(), ints.getSql());
+        assertEquals("7", strings.getValue(1));
+        assertEquals(7, ints.getValue(1));
+        assertEquals(strings.render().replace("'7'", "7"), ints.render());
+    }
+
+    @Test
+    public void bindCreatesNewQuery() {
+        CompiledQuery query = new IQL().addTable("items").select("id %i").where("qty %i", IQL.MORE, 1).build();
+        CompiledQuery bound = query.bind(5);
+        assertEquals(1, query.getValue(1));
+        assertEquals(5, bound.getValue(1));
+    }
+
+    @Test
+    public void sqlOfCreateDeleteBulkUpdateAndJoin() {
+        IQL iql = new IQL();
+        assertEquals("CREATE TABLE IF NOT EXISTS `t`(`id` INTEGER PRIMARY KEY AUTO_INCREMENT, `qty` INTEGER, `name` VARCHAR(255)) DEFAULT CHARSET=utf8",
+                iql.createTable("t", "qty %i", "name %s").getSQL());
+        assertEquals("DELETE FROM `t` WHERE `t`.`id` = 3", iql.addTable("t").delete().whereId(3).getSQL());
+        assertEquals("UPDATE `t` SET `qty` = CASE `id` WHEN 1 THEN 2 WHEN 2 THEN 3 END, `name` = CASE `id` WHEN 1 THEN 'a' WHEN 2 THEN 'b' END"
+                        + " WHERE `id` IN (1, 2) AND (`t`.`qty` > 0)",
+                iql.addTable("t").setBulkUpdateFields("id %i", "qty %i", "name %s").updateRow(1, 2, "a").updateRow(2, 3, "b")
+                        .where("qty %i", IQL.MORE, 0).getSQL());
+        assertEquals("SELECT `t`.`id` AS `t_id` FROM `t` LEFT JOIN `u` ON `t`.`uid` = `u`.`id`",
+                iql.addTable("t", "u").select("id %i").join(1, "uid", 2, "id", IQL.JOIN_LEFT).getSQL());
+    }
+
+    @Test
+    public void booleansAreRenderedByDialect() {
+        assertTrue(new IQL().addTable("items").select("id").where("flag %b", IQL.EQUAL, true).getSQL()
+                .endsWith(" WHERE `items`.`flag` = 1"));
+        IQL.setDialect(new PostgreSqlDialect());
+        try {
+            IQL iql = new IQL();
+            assertTrue(iql.addTable("items").select("id").where("flag %b", IQL.EQUAL, true).getSQL()
+                    .endsWith(" WHERE \"items\".\"flag\" = TRUE"));
+            assertEquals("INSERT INTO \"items\"(\"flag\") VALUES (TRUE), (FALSE)",
+                    iql.addTable("items").setInsertFields("flag %b").insert(true).insert(false).getSQL());
+        } finally {
+            IQL.setDialect(new MySqlDialect());
+        }
+    }
+
+    @Test
+    public void limitedRenderIsPrefixOfFullRender() {
+        IQL iql = new IQL().addTable("items").setInsertFields("name %s", "qty %i");
+        for (int i = 0; i < 20; i++) {
+            iql.insert("it's " + i, i);
+        }
+        CompiledQuery query = iql.build();
+        String full = query.render();
+        for (int length = 0; length <= full.length() + 1; length++) {
+            assertEquals(full.substring(0, Math.min(length, full.length())), query.render(length));
+        }
+        CompiledQuery select = new IQL().addTable("items").select("id").where("name %s", IQL.EQUAL, "a").build();
+        assertEquals(select.render(), select.render(1000));
+        assertEquals(select.render().substring(0, 5), select.render(5));
+    }
+}
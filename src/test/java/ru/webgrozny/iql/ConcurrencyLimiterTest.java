@@ -0,0 +1,148 @@
+package ru.webgrozny.iql;
+
+import org.junit.Before;
+import org.junit.Test;
+import ru.webgrozny.iql.exceptions.ConcurrencyLimitException;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ConcurrencyLimiterTest {
+    public static class Row {
+        public int id;
+    }
+
+    private DataSource database;
+
+    @Before
+    public void setUp() throws SQLException {
+        database = TestDatabase.create();
+        try (Connection con = database.getConnection()) {
+            new IQL(con).createTable("items", "name %s").execute();
+        }
+    }
+
+    private static IQL select() {
+        return new IQL().addTable("items").select("id %i");
+    }
+
+    @Test
+    public void mixedLatencyWithoutSaturationKeepsLimit() throws SQLException {
+        AtomicInteger calls = new AtomicInteger();
+        DataSource mixed = TestDatabase.wrap(database, () -> Thread.sleep(calls.incrementAndGet() % 2 == 0 ? 20 : 0));
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(mixed);
+        for (int i = 0; i < 40; i++) {
+            limiter.query(select(), Row.class);
+        }
+        assertEquals(20, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void queryOverLimitFailsFast() throws Exception {
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        DataSource blocking = TestDatabase.wrap(database, () -> {
+            entered.countDown();
+            finish.await();
+        });
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(blocking).setLimits(1, 1, 1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<List<Row>> running = executor.submit(() -> limiter.query(select(), Row.class));
+            entered.await();
+            try {
+                limiter.query(select(), Row.class);
+                fail();
+            } catch (ConcurrencyLimitException e) {
+                assertEquals(1, limiter.getRejected());
+            }
+            finish.countDown();
+            running.get();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void queryOverLimitWaitsInQueue() throws Exception {
+        CountDownLatch entered = new CountDownLatch(1);
+        DataSource slow = TestDatabase.wrap(database, () -> {
+            entered.countDown();
+            Thread.sleep(50);
+        });
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(slow).setLimits(1, 1, 1).setQueue(1, 5, TimeUnit.SECONDS);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<List<Row>> running = executor.submit(() -> limiter.query(select(), Row.class));
+            entered.await();
+            limiter.query(select(), Row.class);
+            running.get();
+            assertEquals(0, limiter.getRejected());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void timeoutsUnderSaturationHalveLimit() throws Exception {
+        CountDownLatch entered = new CountDownLatch(4);
+        CountDownLatch finish = new CountDownLatch(1);
+        DataSource cancelled = TestDatabase.wrap(database, () -> {
+            entered.countDown();
+            finish.await();
+            throw new SQLException("canceling statement due to statement timeout", "57014");
+        });
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(cancelled).setLimits(4, 1, 4);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<List<Row>>> running = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                running.add(executor.submit(() -> limiter.query(select(), Row.class)));
+            }
+            entered.await();
+            finish.countDown();
+            for (Future<List<Row>> future : running) {
+                try {
+                    future.get();
+                    fail();
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof SQLException);
+                }
+            }
+            assertTrue(limiter.getLimit() < 4);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void timeoutWithoutSaturationKeepsLimit() {
+        DataSource cancelled = TestDatabase.wrap(database, () -> {
+            throw new SQLException("Statement was canceled or the session timed out", "HY008");
+        });
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(cancelled);
+        for (int i = 0; i < 5; i++) {
+            try {
+                limiter.query(select(), Row.class);
+                fail();
+            } catch (SQLException e) {
+                assertEquals(20, limiter.getLimit());
+            }
+        }
+    }
+}
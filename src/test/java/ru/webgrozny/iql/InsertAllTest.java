@@ -0,0 +1,114 @@
+package ru.webgrozny.iql;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class InsertAllTest {
+    public static class Row {
+        public int id;
+    }
+
+    private Connection con;
+    private IQL iql;
+
+    @Before
+    public void setUp() throws SQLException {
+        con = TestDatabase.create().getConnection();
+        iql = new IQL(con);
+        iql.createTable("items", "qty %i", "name %s").execute();
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        con.close();
+    }
+
+    /**
+     * Endless rows, counting calls of next()
+     */
+    private static Iterator<Object[]> endless(AtomicInteger taken, int failAt, Throwable failure) {
+        return new Iterator<Object[]>() {
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public Object[] next() {
+                int i = taken.incrementAndGet();
+                if (i == failAt && failure instanceof Error) {
+                    throw (Error) failure;
+                }
+                return new Object[]{i, i == failAt ? new String(new char[1000]).replace('\0', 'x') : "row"};
+            }
+        };
+    }
+
+    private static boolean converterAlive() {
+        return Thread.getAllStackTraces().keySet().stream().anyMatch(t -> t.getName().equals("iql-insert-converter"));
+    }
+
+    @Test
+    public void insertsAllRowsOfStream() throws SQLException {
+        long inserted = iql.addTable("items").setInsertFields("qty %i", "name %s")
+                .insertAll(IntStream.range(0, 2500).mapToObj(i -> new Object[]{i, "row"}), 1000, 2);
+        assertEquals(2500, inserted);
+        assertEquals(2500, iql.addTable("items").select("id %i").query(Row.class).size());
+        assertFalse(converterAlive());
+    }
+
+    @Test
+    public void failedInsertStopsConverter() throws InterruptedException {
+        AtomicInteger taken = new AtomicInteger();
+        try {
+            iql.addTable("items").setInsertFields("qty %i", "name %s").insertAll(endless(taken, 1500, null), 1000, 2);
+            fail();
+        } catch (SQLException e) {
+            iql.reset();
+        }
+        assertFalse(converterAlive());
+        int after = taken.get();
+        Thread.sleep(50);
+        assertEquals(after, taken.get());
+    }
+
+    @Test
+    public void errorOfIteratorIsPassedToCaller() {
+        AtomicInteger taken = new AtomicInteger();
+        try {
+            iql.addTable("items").setInsertFields("qty %i", "name %s").insertAll(endless(taken, 1500, new AssertionError("broken")), 1000, 2);
+            fail();
+        } catch (AssertionError e) {
+            assertEquals("broken", e.getMessage());
+            iql.reset();
+        } catch (SQLException e) {
+            fail();
+        }
+        assertFalse(converterAlive());
+    }
+
+    @Test
+    public void pendingRowsAreNotDropped() throws SQLException {
+        iql.addTable("items").setInsertFields("qty %i", "name %s").insert(1, "pending");
+        try {
+            iql.insertAll(IntStream.range(0, 10).mapToObj(i -> new Object[]{i, "row"}));
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        iql.execute();
+        assertEquals(1, iql.addTable("items").select("id %i").query(Row.class).size());
+        assertFalse(converterAlive());
+    }
+}
@@ -0,0 +1,100 @@
+package ru.webgrozny.iql;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class InsertBatchTest {
+    private Connection con;
+    private final AtomicInteger batches = new AtomicInteger();
+
+    @Before
+    public void setUp() throws SQLException {
+        con = TestDatabase.create().getConnection();
+        new IQL(con).createTable("items", "qty %i").execute();
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        con.close();
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * @return connection, which counts executeBatch() of its prepared statements
+     */
+    private Connection counting() {
+        return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{Connection.class}, (proxy, method, args) -> {
+            Object result = invoke(con, method, args);
+            if (!method.getName().equals("prepareStatement")) {
+                return result;
+            }
+            return Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{PreparedStatement.class}, (ps, psMethod, psArgs) -> {
+                if (psMethod.getName().equals("executeBatch")) {
+                    batches.incrementAndGet();
+                }
+                return invoke(result, psMethod, psArgs);
+            });
+        });
+    }
+
+    private IQL insertRows(Connection connection, int rows) {
+        IQL iql = new IQL(connection).addTable("items").setInsertFields("qty %i");
+        for (int i = 0; i < rows; i++) {
+            iql.insert(i);
+        }
+        return iql;
+    }
+
+    private int count() throws SQLException {
+        try (Statement st = con.createStatement(); ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM items")) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    @Test
+    public void batchIsExecutedEveryChunksInAutoCommit() throws SQLException {
+        int[] counts = insertRows(counting(), 100).executeInsertBatch(2);
+
+        assertEquals(50, counts.length);
+        assertEquals("50 chunks in batches of 16", 4, batches.get());
+        assertEquals(100, count());
+    }
+
+    @Test
+    public void batchIsCommittedEveryChunks() throws SQLException {
+        con.setAutoCommit(false);
+        int[] counts = insertRows(counting(), 101).executeInsertBatch(10, 3);
+        con.rollback();
+        con.setAutoCommit(true);
+
+        assertEquals(11, counts.length);
+        assertEquals("10 chunks in batches of 3", 4, batches.get());
+        assertEquals(101, count());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void commitIntervalIsRejectedInAutoCommit() throws SQLException {
+        insertRows(con, 10).executeInsertBatch(2, 2);
+    }
+}
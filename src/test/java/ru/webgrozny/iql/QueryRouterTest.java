@@ -0,0 +1,153 @@
+package ru.webgrozny.iql;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class QueryRouterTest {
+    public static class Row {
+        public int id;
+        public String name;
+    }
+
+    private DataSource primary;
+    private DataSource first;
+    private DataSource second;
+    private volatile boolean secondDown;
+    private final IQL iql = new IQL();
+
+    @Before
+    public void setUp() throws SQLException {
+        primary = database("primary");
+        first = database("first");
+        DataSource second = database("second");
+        this.second = TestDatabase.failing(second, () -> secondDown);
+    }
+
+    private static DataSource database(String name) throws SQLException {
+        DataSource ds = TestDatabase.create();
+        try (Connection con = ds.getConnection()) {
+            IQL iql = new IQL(con);
+            iql.createTable("items", "name %s").execute();
+            iql.addTable("items").setInsertFields("name %s").insert(name).execute();
+        }
+        return ds;
+    }
+
+    private String read(QueryRouter router) throws SQLException {
+        List<Row> rows = router.query(iql.addTable("items").select("id %i", "name").orderBy("id", IQL.ASC), Row.class);
+        return rows.get(0).name;
+    }
+
+    @Test
+    public void selectsGoToReplicasInTurn() throws SQLException {
+        QueryRouter router = new QueryRouter(primary, first, second);
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            names.add(read(router));
+        }
+        assertEquals(2, names.stream().filter("first"::equals).count());
+        assertEquals(2, names.stream().filter("second"::equals).count());
+    }
+
+    @Test
+    public void writesGoToPrimary() throws SQLException {
+        QueryRouter router = new QueryRouter(primary, first, second).setPinWindow(0, TimeUnit.SECONDS);
+        assertEquals(1, router.execute(iql.addTable("items").setInsertFields("name %s").insert("written")));
+        assertFalse(router.isPinned());
+        try (Connection con = primary.getConnection()) {
+            assertEquals(2, new IQL(con).addTable("items").select("id %i").query(Row.class).size());
+        }
+        try (Connection con = first.getConnection()) {
+            assertEquals(1, new IQL(con).addTable("items").select("id %i").query(Row.class).size());
+        }
+    }
+
+    @Test
+    public void selectsAfterWriteArePinnedToPrimary() throws Exception {
+        QueryRouter router = new QueryRouter(primary, first).setPinWindow(200, TimeUnit.MILLISECONDS);
+        router.execute(iql.addTable("items").setUpdateFields("name %s").update("primary").whereId(1));
+        assertTrue(router.isPinned());
+        assertEquals("primary", read(router));
+        Thread.sleep(300);
+        assertFalse(router.isPinned());
+        assertEquals("first", read(router));
+    }
+
+    @Test
+    public void transactionUsesOneConnectionToPrimary() throws SQLException {
+        QueryRouter router = new QueryRouter(primary, first).setPinWindow(0, TimeUnit.SECONDS);
+        router.begin();
+        assertTrue(router.isInTransaction());
+        router.execute(iql.addTable("items").setUpdateFields("name %s").update("uncommitted").whereId(1));
+        assertEquals("uncommitted", read(router));
+        router.rollback();
+        assertFalse(router.isInTransaction());
+        assertEquals("first", read(router));
+
+        router.begin();
+        router.execute(iql.addTable("items").setUpdateFields("name %s").update("committed").whereId(1));
+        router.commit();
+        try (Connection con = primary.getConnection()) {
+            assertEquals("committed", new IQL(con).addTable("items").select("id %i", "name").query(Row.class).get(0).name);
+        }
+    }
+
+    @Test
+    public void failedReplicaIsSkippedUntilRetryInterval() throws Exception {
+        QueryRouter router = new QueryRouter(primary, first, second).setRetryInterval(200, TimeUnit.MILLISECONDS);
+        secondDown = true;
+        for (int i = 0; i < 4; i++) {
+            assertEquals("first", read(router));
+        }
+        assertEquals(1, router.getHealthyReplicaCount());
+        secondDown = false;
+        Thread.sleep(300);
+        assertEquals(2, router.getHealthyReplicaCount());
+    }
+
+    @Test
+    public void selectsFallBackToPrimaryWhenAllReplicasFail() throws SQLException {
+        DataSource down = TestDatabase.failing(first, () -> true);
+        QueryRouter router = new QueryRouter(primary, down).setBalancing(QueryRouter.LEAST_OUTSTANDING);
+        assertEquals("primary", read(router));
+        assertEquals(0, router.getHealthyReplicaCount());
+    }
+
+    @Test
+    public void queryErrorsAreNotTreatedAsReplicaFailure() {
+        QueryRouter router = new QueryRouter(primary, first);
+        try {
+            router.query(iql.addTable("missing").select("id %i"), Row.class);
+            fail();
+        } catch (SQLException e) {
+            assertEquals(1, router.getHealthyReplicaCount());
+        }
+    }
+
+    @Test
+    public void replicaCheckExcludesReplica() throws Exception {
+        try (QueryRouter router = new QueryRouter(primary, first, second)) {
+            router.setReplicaCheck(con -> !"first".equals(new IQL(con).addTable("items").select("id %i", "name").query(Row.class).get(0).name),
+                    20, TimeUnit.MILLISECONDS);
+            long deadline = System.currentTimeMillis() + 2000;
+            while (router.getHealthyReplicaCount() != 1 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            for (int i = 0; i < 4; i++) {
+                assertEquals("second", read(router));
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package ru.webgrozny.iql;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import ru.webgrozny.iql.cache.ResultCache;
+import ru.webgrozny.iql.pool.LeasedStatement;
+import ru.webgrozny.iql.pool.StatementPool;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class ResultCacheTest {
+    public static class Row {
+        public int id;
+        public String name;
+    }
+
+    private Connection con;
+    private IQL iql;
+    private ResultCache cache;
+
+    @Before
+    public void setUp() throws SQLException {
+        con = TestDatabase.create().getConnection();
+        iql = new IQL(con);
+        iql.createTable("items", "name %s").execute();
+        iql.addTable("items").setInsertFields("name %s").insert("z").execute();
+        cache = new ResultCache(100, 1 << 20, 0, TimeUnit.SECONDS);
+        IQL.setResultCache(cache);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        IQL.setResultCache(null);
+        con.close();
+    }
+
+    private String read() throws SQLException {
+        return iql.addTable("items").select("id %i", "name").whereId(1).query(Row.class).get(0).name;
+    }
+
+    private IQL rename(String name) {
+        return iql.addTable("items").setUpdateFields("name %s").update(name).whereId(1);
+    }
+
+    @Test
+    public void repeatedSelectIsServedFromCache() throws SQLException {
+        assertEquals("z", read());
+        assertEquals("z", read());
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void executeDropsResults() throws SQLException {
+        assertEquals("z", read());
+        rename("w").execute();
+        assertEquals("w", read());
+    }
+
+    @Test
+    public void statementOfWriteDropsResults() throws SQLException {
+        assertEquals("z", read());
+        try (PreparedStatement ps = rename("w").getStatement()) {
+            ps.executeUpdate();
+        }
+        assertEquals("w", read());
+    }
+
+    @Test
+    public void preparedWriteDropsResults() throws SQLException {
+        assertEquals("z", read());
+        try (PreparedStatement ps = rename("w").build().prepare(con)) {
+            ps.executeUpdate();
+        }
+        assertEquals("w", read());
+    }
+
+    @Test
+    public void leasedWriteDropsResultsAfterExecution() throws SQLException {
+        StatementPool pool = new StatementPool(con, 4);
+        iql.setStatementPool(pool);
+        LeasedStatement leased = rename("w").leaseStatement();
+        assertEquals("z", read());
+        leased.getStatement().executeUpdate();
+        leased.close();
+        assertEquals("w", read());
+    }
+
+    @Test
+    public void databasesDoNotShareResults() throws SQLException {
+        try (Connection otherCon = TestDatabase.create().getConnection()) {
+            IQL other = new IQL(otherCon);
+            other.createTable("items", "name %s").execute();
+            other.addTable("items").setInsertFields("name %s").insert("other").execute();
+            assertEquals("z", read());
+            assertEquals("other", other.addTable("items").select("id %i", "name").whereId(1).query(Row.class).get(0).name);
+
+            other.addTable("items").setUpdateFields("name %s").update("changed").whereId(1).execute();
+            assertEquals("z", read());
+            assertEquals("write to other database keeps results of this one", 1, cache.getHits());
+        }
+    }
+
+    @Test
+    public void invalidateOfTableDropsResultsOfAllDatabases() throws SQLException {
+        assertEquals("z", read());
+        try (PreparedStatement ps = con.prepareStatement("UPDATE items SET name = 'w' WHERE id = 1")) {
+            ps.executeUpdate();
+        }
+        cache.invalidate("items");
+        assertEquals("w", read());
+    }
+}
@@ -0,0 +1,57 @@
+package ru.webgrozny.iql;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ResultMappingTest {
+    public static class Row {
+        public int id;
+        public int qty;
+        private String name;
+
+        public void setName(String name) {
+            this.name = name;
+        }
+    }
+
+    private Connection con;
+    private IQL iql;
+
+    @Before
+    public void setUp() throws SQLException {
+        con = TestDatabase.create().getConnection();
+        iql = new IQL(con);
+        iql.createTable("items", "qty %i", "name %s").execute();
+        iql.addTable("items").setInsertFields("qty %i", "name %s").insert(3, "a").insert(4, "b").execute();
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        con.close();
+    }
+
+    @Test
+    public void mapsColumnsToFieldsAndSetters() throws SQLException {
+        List<Row> rows = iql.addTable("items").select("id %i", "qty %i", "name").orderBy("id", IQL.ASC).query(Row.class);
+        assertEquals(2, rows.size());
+        assertEquals(4, rows.get(1).qty);
+        assertEquals("b", rows.get(1).name);
+    }
+
+    @Test
+    public void cacheOfBindingsIsBounded() throws SQLException {
+        for (int i = 0; i < 1100; i++) {
+            iql.addTable("items").selectRaw("id AS " + IQL.getDialect().quote("id") + ", " + i + " AS " + IQL.getDialect().quote("qty"))
+                    .query(Row.class);
+        }
+        assertTrue(ResultMapping.getCachedCount() <= 1024);
+    }
+}
@@ -0,0 +1,85 @@
+package ru.webgrozny.iql;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class SeekAfterTest {
+    public static class Row {
+        public int id;
+        public int created;
+    }
+
+    private Connection con;
+    private IQL iql;
+
+    @Before
+    public void setUp() throws SQLException {
+        con = TestDatabase.create().getConnection();
+        iql = new IQL(con);
+        iql.createTable("items", "created %d").execute();
+        iql.addTable("items").setInsertFields("created %d");
+        for (int i = 1; i <= 10; i++) {
+            iql.insert(i * 100);
+        }
+        iql.execute();
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        con.close();
+    }
+
+    private static int[] ids(List<Row> rows) {
+        return rows.stream().mapToInt(row -> row.id).toArray();
+    }
+
+    @Test
+    public void pagesByLongKey() throws SQLException {
+        List<Row> page = iql.addTable("items").select("id %i", "created %i").orderBy("id", IQL.ASC).seekAfter(5L).limit(3).query(Row.class);
+        assertArrayEquals(new int[]{6, 7, 8}, ids(page));
+        page = iql.addTable("items").select("id %i", "created %i").orderBy("id", IQL.DESC).seekAfter(5L).limit(3).query(Row.class);
+        assertArrayEquals(new int[]{4, 3, 2}, ids(page));
+    }
+
+    @Test
+    public void pagesByDateKey() throws SQLException {
+        List<Row> page = iql.addTable("items").select("id %i", "created %i").orderBy("created", IQL.ASC)
+                .seekAfter(new Date(700 * 1000L)).limit(5).query(Row.class);
+        assertArrayEquals(new int[]{8, 9, 10}, ids(page));
+    }
+
+    @Test
+    public void pagesByCursorOfLongKey() throws SQLException {
+        String cursor = SeekCursor.encode(2L);
+        List<Row> page = iql.addTable("items").select("id %i", "created %i").orderBy("id", IQL.ASC).seekAfter(cursor).limit(2).query(Row.class);
+        assertArrayEquals(new int[]{3, 4}, ids(page));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void keyOfUnknownTypeIsRejected() {
+        iql.addTable("items").select("id %i").orderBy("id", IQL.ASC).seekAfter(BigDecimal.ONE);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void longKeyOutOfIntRangeIsRejected() {
+        iql.addTable("items").select("id %i").orderBy("id", IQL.ASC).seekAfter(1L << 40);
+    }
+
+    @Test
+    public void cursorKeepsKeysExactly() {
+        Object[] keys = {Long.MAX_VALUE, 0.1, 0.1f, new Date(1234567L), 42, true, "a;b\\c", null};
+        Object[] decoded = SeekCursor.decode(SeekCursor.encode(keys));
+        assertArrayEquals(keys, decoded);
+        assertEquals(Double.class, decoded[1].getClass());
+    }
+}
@@ -0,0 +1,75 @@
+package ru.webgrozny.iql;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import ru.webgrozny.iql.cache.ResultCache;
+import ru.webgrozny.iql.metrics.SlowQueryLog;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class SlowQueryLogTest {
+    public static class Row {
+        public int id;
+        public String name;
+    }
+
+    private DataSource database;
+    private Connection con;
+    private IQL iql;
+
+    @Before
+    public void setUp() throws SQLException {
+        database = TestDatabase.create();
+        con = database.getConnection();
+        iql = new IQL(con);
+        iql.createTable("items", "name %s").execute();
+        iql.addTable("items").setInsertFields("name %s").insert("z").execute();
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        IQL.setResultCache(null);
+        con.close();
+    }
+
+    @Test
+    public void explainOfWriteKeepsCachedResults() throws Exception {
+        ResultCache cache = new ResultCache(100, 1 << 20, 0, TimeUnit.SECONDS);
+        IQL.setResultCache(cache);
+        iql.addTable("items").select("id %i", "name").query(Row.class);
+        try (SlowQueryLog log = new SlowQueryLog(database, 0, TimeUnit.NANOSECONDS)) {
+            log.record(iql.addTable("items").setUpdateFields("name %s").update("w").whereId(1).build(), 1, true);
+            for (int i = 0; i < 100 && log.getExplainedCount() == 0; i++) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, log.getExplainedCount());
+            assertNotNull(log.getEntries().get(0).getPlan());
+        }
+        iql.addTable("items").select("id %i", "name").query(Row.class);
+        assertEquals(1, cache.getHits());
+        assertEquals(0, cache.getInvalidations());
+    }
+
+    @Test
+    public void renderedSqlOfLargeInsertIsCut() {
+        iql.addTable("items").setInsertFields("name %s");
+        for (int i = 0; i < 100000; i++) {
+            iql.insert("row " + i);
+        }
+        CompiledQuery insert = iql.build();
+        try (SlowQueryLog log = new SlowQueryLog(null, 0, TimeUnit.NANOSECONDS)) {
+            log.record(insert, 1, false);
+            String rendered = log.getEntries().get(0).getRendered();
+            assertEquals(8192 + 3, rendered.length());
+            assertTrue(insert.render().startsWith(rendered.substring(0, 8192)));
+        }
+    }
+}
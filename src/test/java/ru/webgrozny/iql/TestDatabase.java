@@ -0,0 +1,65 @@
+package ru.webgrozny.iql;
+
+import org.h2.jdbcx.JdbcDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+/**
+ * In-memory H2 databases in MySQL mode for tests
+ */
+final class TestDatabase {
+    private static final AtomicInteger counter = new AtomicInteger();
+
+    private TestDatabase() {
+    }
+
+    /**
+     * @return data source of new empty database, which lives until JVM exit
+     */
+    static JdbcDataSource create() {
+        JdbcDataSource ds = new JdbcDataSource();
+        ds.setURL("jdbc:h2:mem:test" + counter.incrementAndGet() + ";MODE=MySQL;DB_CLOSE_DELAY=-1");
+        return ds;
+    }
+
+    /**
+     * Action, executed before every getConnection()
+     */
+    interface ConnectionHook {
+        void beforeConnection() throws Exception;
+    }
+
+    /**
+     * @param hook action before every getConnection(), it may fail or sleep
+     * @return data source, which delegates to target
+     */
+    static DataSource wrap(DataSource target, ConnectionHook hook) {
+        return (DataSource) Proxy.newProxyInstance(TestDatabase.class.getClassLoader(), new Class[]{DataSource.class}, (proxy, method, args) -> {
+            if (method.getName().equals("getConnection")) {
+                hook.beforeConnection();
+            }
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        });
+    }
+
+    /**
+     * @param down condition, while getConnection() fails with SQL state 08001
+     * @return data source, which delegates to target
+     */
+    static DataSource failing(DataSource target, BooleanSupplier down) {
+        return wrap(target, () -> {
+            if (down.getAsBoolean()) {
+                throw new SQLException("database is down", "08001");
+            }
+        });
+    }
+}
@@ -0,0 +1,119 @@
+package ru.webgrozny.iql;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class UnitOfWorkTest {
+    public static class Row {
+        public int id;
+        public int qty;
+    }
+
+    private Connection con;
+    private IQL iql;
+
+    @Before
+    public void setUp() throws SQLException {
+        con = TestDatabase.create().getConnection();
+        iql = new IQL(con);
+        iql.createTable("items", "qty %i").execute();
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        con.close();
+    }
+
+    private List<Row> rows() throws SQLException {
+        return iql.addTable("items").select("id %i", "qty %i").orderBy("id", IQL.ASC).query(Row.class);
+    }
+
+    private IQL insert(int qty) {
+        return iql.addTable("items").setInsertFields("qty %i").insert(qty);
+    }
+
+    @Test
+    public void queriesWithSameSqlAreBatched() throws SQLException {
+        UnitOfWork unit = new UnitOfWork();
+        unit.add(insert(1));
+        unit.add(insert(2));
+        unit.add(insert(3));
+        unit.add(iql.addTable("items").setUpdateFields("qty %i").update(20).whereId(2));
+        unit.add(iql.addTable("items").delete(1));
+        unit.add(iql.addTable("items").delete(3));
+
+        int[] counts = unit.execute(con);
+
+        assertArrayEquals(new int[]{1, 1, 1, 1, 1, 1}, counts);
+        assertEquals("3 batches and commit", 4, unit.getRoundTrips());
+        assertTrue(con.getAutoCommit());
+        List<Row> rows = rows();
+        assertEquals(1, rows.size());
+        assertEquals(2, rows.get(0).id);
+        assertEquals(20, rows.get(0).qty);
+    }
+
+    @Test
+    public void failedQueryRollsBackWholeUnit() throws SQLException {
+        insert(1).execute();
+        UnitOfWork unit = new UnitOfWork();
+        unit.add(insert(2));
+        unit.add(iql.addTable("items").setUpdateFields("qty %i").update(10).whereId(1));
+        unit.add(iql.addTable("missing").setInsertFields("qty %i").insert(3));
+
+        try {
+            unit.execute(con);
+            fail("insert into missing table must fail");
+        } catch (SQLException e) {
+            // expected
+        }
+
+        assertTrue(con.getAutoCommit());
+        List<Row> rows = rows();
+        assertEquals(1, rows.size());
+        assertEquals(1, rows.get(0).qty);
+    }
+
+    @Test
+    public void transactionOfCallerIsNotCommitted() throws SQLException {
+        con.setAutoCommit(false);
+        UnitOfWork unit = new UnitOfWork();
+        unit.add(insert(1));
+        unit.add(insert(2));
+
+        unit.execute(con);
+        assertEquals("batch without commit", 1, unit.getRoundTrips());
+        con.rollback();
+        con.setAutoCommit(true);
+
+        assertEquals(0, rows().size());
+    }
+
+    @Test
+    public void unitCanBeExecutedAgainAfterClear() throws SQLException {
+        UnitOfWork unit = new UnitOfWork();
+        unit.add(insert(1));
+        unit.execute(con);
+        unit.clear();
+        assertEquals(0, unit.size());
+        unit.add(insert(2));
+        unit.execute(con);
+
+        assertEquals(2, rows().size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void selectIsRejected() {
+        new UnitOfWork().add(iql.addTable("items").select("id %i"));
+    }
+}
@@ -0,0 +1,26 @@
+package ru.webgrozny.iql;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ValueCodecTest {
+    private static boolean parses(String s) {
+        try {
+            Float.parseFloat(s);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    @Test
+    public void floatSyntaxMatchesParseFloat() {
+        String[] inputs = {"0", "1.5", "-1.5", "+.5", "5.", ".", "", " ", "-", "1e10", "1E-3", "2.5e+7", "1e", "1e+",
+                "e5", ".e1", "1.5f", "1.5D", "f", "1.5ff", " 7.25 ", "\t3\n", "NaN", "-Infinity", "+NaN", "Infinityx",
+                "NaNf", "1,5", "1.2.3", "12abc", "--1", "1e5.5", "\u0661", "00012.5000", "3.4028235E39"};
+        for (String input : inputs) {
+            assertEquals(input, parses(input), ValueCodec.isFloat(input));
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package ru.webgrozny.iql;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import ru.webgrozny.iql.exceptions.ChunkedQueryException;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class WhereInTest {
+    public static class Row {
+        public int id;
+        public int age;
+    }
+
+    private Connection con;
+    private IQL iql;
+
+    @Before
+    public void setUp() throws SQLException {
+        con = TestDatabase.create().getConnection();
+        iql = new IQL(con);
+        iql.createTable("people", "age %i").execute();
+        iql.addTable("people").setInsertFields("age %i");
+        for (int i = 0; i < 3000; i++) {
+            iql.insert(i % 10);
+        }
+        iql.executeInsertBatch(1000);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        con.close();
+    }
+
+    private static List<Integer> ids(int from, int to) {
+        List<Integer> ids = new ArrayList<>();
+        for (int i = from; i <= to; i++) {
+            ids.add(i);
+        }
+        return ids;
+    }
+
+    @Test
+    public void smallListIsPaddedToBucket() {
+        String sql = iql.addTable("people").select("id %i").whereIn("id %i", Arrays.asList(1, 2, 3)).build().getSql();
+        assertEquals(8, sql.length() - sql.replace("?", "").length());
+    }
+
+    @Test
+    public void emptyListMatchesNothing() throws SQLException {
+        assertTrue(iql.addTable("people").select("id %i").whereIn("id %i", Collections.emptyList()).query(Row.class).isEmpty());
+    }
+
+    @Test
+    public void chunkedListWithAndQueriesEveryChunk() throws SQLException {
+        List<Row> rows = iql.addTable("people").select("id %i", "age %i")
+                .whereIn("id %i", ids(1, 2500)).where("age %i", IQL.EQUAL, 0).query(Row.class);
+        assertEquals(250, rows.size());
+    }
+
+    @Test
+    public void chunkedListUpdatesEveryChunk() throws SQLException {
+        assertEquals(2000, iql.addTable("people").setUpdateFields("age %i").update(42).whereIn("id %i", ids(1, 2000)).execute());
+    }
+
+    @Test
+    public void chunkedListWithOrIsRejected() throws SQLException {
+        iql.addTable("people").select("id %i").where("age %i", IQL.EQUAL, 0).or().whereIn("id %i", ids(1, 2000));
+        try {
+            iql.query(Row.class);
+            fail();
+        } catch (ChunkedQueryException e) {
+            iql.reset();
+        }
+    }
+
+    @Test
+    public void chunkedListWithOrderOrLimitIsRejected() throws SQLException {
+        iql.addTable("people").select("id %i").whereIn("id %i", ids(1, 2000)).orderBy("id", IQL.ASC);
+        try {
+            iql.query(Row.class);
+            fail();
+        } catch (ChunkedQueryException e) {
+            iql.reset();
+        }
+        iql.addTable("people").select("id %i").whereIn("id %i", ids(1, 2000)).limit(10);
+        try {
+            iql.query(Row.class);
+            fail();
+        } catch (ChunkedQueryException e) {
+            iql.reset();
+        }
+    }
+
+    @Test(expected = ChunkedQueryException.class)
+    public void chunkedListCanNotBeBuilt() {
+        iql.addTable("people").select("id %i").whereIn("id %i", ids(1, 2000)).build();
+    }
+
+    @Test
+    public void largeNotInListIsSplitToConditions() throws SQLException {
+        assertEquals(1000, iql.addTable("people").select("id %i").whereNotIn("id %i", ids(1, 2000)).query(Row.class).size());
+    }
+}
@@ -0,0 +1,134 @@
+package ru.webgrozny.iql;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class WriteBehindBufferTest {
+    public static class Row {
+        public int id;
+        public int qty;
+        public String name;
+    }
+
+    private static final String LONG_NAME = new String(new char[1000]).replace('\0', 'x');
+
+    private DataSource database;
+    private Connection con;
+    private IQL iql;
+
+    @Before
+    public void setUp() throws SQLException {
+        database = TestDatabase.create();
+        con = database.getConnection();
+        iql = new IQL(con);
+        iql.createTable("items", "qty %i", "name %s").execute();
+        iql.addTable("items").setInsertFields("qty %i", "name %s");
+        for (int i = 0; i < 1500; i++) {
+            iql.insert(0, "initial");
+        }
+        iql.executeInsertBatch(1000);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        con.close();
+    }
+
+    private List<Row> rows() throws SQLException {
+        return iql.addTable("items").select("id %i", "qty %i", "name").orderBy("id", IQL.ASC).query(Row.class);
+    }
+
+    /**
+     * @return data source, which always returns the same connection in manual commit mode and ignores its close()
+     */
+    private DataSource sharedConnection() throws SQLException {
+        Connection shared = database.getConnection();
+        shared.setAutoCommit(false);
+        Connection unclosable = (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{Connection.class}, (proxy, method, args) -> {
+            if (method.getName().equals("close")) {
+                return null;
+            }
+            try {
+                return method.invoke(shared, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        });
+        return (DataSource) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{DataSource.class},
+                (proxy, method, args) -> method.getName().equals("getConnection") ? unclosable : null);
+    }
+
+    @Test
+    public void updatesOfRowAreCoalesced() throws SQLException {
+        try (WriteBehindBuffer buffer = new WriteBehindBuffer(database, 10000, 1, TimeUnit.HOURS)) {
+            for (int i = 1; i <= 100; i++) {
+                iql.addTable("items").setUpdateFields("qty %i").update(i).whereId(1 + i % 2).executeLater(buffer);
+            }
+            iql.addTable("items").setUpdateFields("name %s").update("renamed").whereId(1).executeLater(buffer);
+            assertEquals(2, buffer.getPendingRows());
+            buffer.flush();
+            assertEquals(2, buffer.getFlushedRows());
+            assertEquals(0, buffer.getPendingRows());
+        }
+        List<Row> rows = rows();
+        assertEquals(100, rows.get(0).qty);
+        assertEquals("renamed", rows.get(0).name);
+        assertEquals(99, rows.get(1).qty);
+        assertEquals("initial", rows.get(1).name);
+    }
+
+    @Test
+    public void failedGroupIsRolledBackAndOnlyItIsRequeued() throws SQLException {
+        WriteBehindBuffer buffer = new WriteBehindBuffer(database, 10000, 1, TimeUnit.HOURS);
+        iql.addTable("items").setUpdateFields("qty %i").update(7).whereId(1).executeLater(buffer);
+        for (int id = 1; id <= 1500; id++) {
+            iql.addTable("items").setUpdateFields("name %s").update(id == 1200 ? LONG_NAME : "updated").whereId(id).executeLater(buffer);
+        }
+        assertEquals(1500, buffer.getPendingRows());
+        try {
+            buffer.flush();
+            fail();
+        } catch (SQLException e) {
+            assertEquals(1, buffer.getFailedFlushes());
+        }
+        List<Row> rows = rows();
+        assertEquals(7, rows.get(0).qty);
+        assertEquals("updated", rows.get(0).name);
+        for (Row row : rows.subList(1, rows.size())) {
+            assertEquals("initial", row.name);
+        }
+        assertEquals(1, buffer.getFlushedRows());
+        assertEquals(1499, buffer.getPendingRows());
+    }
+
+    @Test
+    public void failedFlushRollsBackConnectionInManualCommitMode() throws SQLException {
+        DataSource shared = sharedConnection();
+        WriteBehindBuffer buffer = new WriteBehindBuffer(shared, 10000, 1, TimeUnit.HOURS);
+        for (int id = 1; id <= 1500; id++) {
+            iql.addTable("items").setUpdateFields("name %s").update(id == 1200 ? LONG_NAME : "updated").whereId(id).executeLater(buffer);
+        }
+        try {
+            buffer.flush();
+            fail();
+        } catch (SQLException e) {
+            assertEquals(1500, buffer.getPendingRows());
+        }
+        shared.getConnection().commit();
+        for (Row row : rows()) {
+            assertEquals("initial", row.name);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package ru.webgrozny.iql.async;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.Test;
+import ru.webgrozny.iql.IQL;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AsyncExecutorTest {
+    private static JdbcDataSource database() {
+        JdbcDataSource ds = new JdbcDataSource();
+        ds.setURL("jdbc:h2:mem:async;MODE=MySQL;DB_CLOSE_DELAY=-1");
+        return ds;
+    }
+
+    @Test
+    public void queryIsExecuted() throws Exception {
+        try (AsyncExecutor async = new AsyncExecutor(database())) {
+            assertEquals(0, (int) async.executeAsync(new IQL().createTable("async_items", "qty %i")).get());
+        }
+    }
+
+    @Test
+    public void rejectedQueryFailsFuture() throws InterruptedException {
+        ExecutorService executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new SynchronousQueue<>());
+        CountDownLatch release = new CountDownLatch(1);
+        executor.execute(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        try (AsyncExecutor async = new AsyncExecutor(database(), executor)) {
+            CompletableFuture<Integer> future = async.executeAsync(new IQL().createTable("rejected_items", "qty %i"));
+            assertTrue(future.isCompletedExceptionally());
+            try {
+                future.get();
+                fail();
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof RejectedExecutionException);
+            }
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+}
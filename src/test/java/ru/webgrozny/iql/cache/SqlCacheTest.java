@@ -0,0 +1,56 @@
+package ru.webgrozny.iql.cache;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class SqlCacheTest {
+    private static String sql(int length) {
+        return new String(new char[length]).replace('\0', 'x');
+    }
+
+    @Test
+    public void totalLengthIsBounded() {
+        SqlCache cache = new SqlCache(1024, 1600);
+        for (int i = 0; i < 100; i++) {
+            cache.put("shape" + i, sql(100));
+        }
+        assertEquals(16, cache.size());
+        assertEquals(1600, cache.getChars());
+        assertEquals(84, cache.getEvictions());
+    }
+
+    @Test
+    public void longSqlIsNotCached() {
+        SqlCache cache = new SqlCache(1024, 1600);
+        cache.put("large insert", sql(101));
+        assertNull(cache.get("large insert"));
+        assertEquals(0, cache.getChars());
+    }
+
+    @Test
+    public void clockHandKeepsPositionBetweenEvictions() {
+        SqlCache cache = new SqlCache(3);
+        cache.put("a", "A");
+        cache.put("b", "B");
+        cache.put("c", "C");
+        cache.get("a");
+        cache.put("d", "D");
+        assertNull("a has second chance, b is evicted", cache.get("b"));
+        cache.put("e", "E");
+        assertNotNull("hand continues after b, a is not swept again", cache.get("a"));
+        assertNull(cache.get("c"));
+        assertEquals(3, cache.size());
+    }
+
+    @Test
+    public void clearResetsLength() {
+        SqlCache cache = new SqlCache(10);
+        cache.put("a", "SELECT 1");
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getChars());
+    }
+}